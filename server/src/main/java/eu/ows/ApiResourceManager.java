@@ -2,24 +2,27 @@ package eu.ows;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.Path;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.parquet.column.page.PageReadStore;
+import org.apache.lucene.util.Bits;
 import org.apache.parquet.example.data.simple.SimpleGroup;
-import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
-import org.apache.parquet.hadoop.ParquetFileReader;
-import org.apache.parquet.hadoop.util.HadoopInputFile;
-import org.apache.parquet.io.ColumnIOFactory;
-import org.apache.parquet.io.MessageColumnIO;
-import org.apache.parquet.io.RecordReader;
-import org.apache.parquet.schema.MessageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,12 +38,21 @@ public class ApiResourceManager {
     private static ApiResourceManager INSTANCE;
 
     private static Map<String, FSDirectory> indexes;
+    private static Map<String, SearcherManager> searcherManagers = new ConcurrentHashMap<String, SearcherManager>();
+    private static Map<IndexReader.CacheKey, Boolean> denormalizedReaders = new ConcurrentHashMap<IndexReader.CacheKey, Boolean>();
+    private static Map<IndexReader.CacheKey, MetadataColumns> metadataColumns = new ConcurrentHashMap<IndexReader.CacheKey, MetadataColumns>();
     private static Map<String, List<SimpleGroup>> metadataGroups;  // used for Lucene indexes containing URLs
     private static Map<String, Map<String, SimpleGroup>> metadata; // used for Lucene indexes containing UUIDs
 
     private ApiResourceManager() {
         readLuceneIndexes();
-        readParquetFiles();
+        if (ApiUtils.isParquetEnabled()) {
+            readParquetFiles();
+        } else {
+            LOGGER.info("Skipping parquet files, only denormalized indexes are enriched with metadata");
+            metadataGroups = new HashMap<String, List<SimpleGroup>>();
+            metadata = new HashMap<String, Map<String, SimpleGroup>>();
+        }
     }
 
     public static ApiResourceManager getInstance() {
@@ -61,9 +73,10 @@ public class ApiResourceManager {
         for (File indexDir : indexDirs) {
             if (indexDir.getName() != null && indexDir.isDirectory()) {
                 String indexName = indexDir.getName();
-                LOGGER.info("Adding {} to indexes map", indexName);
+                IndexDirectoryConfig indexDirectoryConfig = ApiUtils.getIndexDirectoryConfig();
+                LOGGER.info("Adding {} to indexes map with directory {}", indexName, indexDirectoryConfig.describe(indexName));
                 try {
-                    indexes.put(indexName, FSDirectory.open(Paths.get(ApiUtils.getIndexDirPath() + indexName)));
+                    indexes.put(indexName, indexDirectoryConfig.openDirectory(indexName, Paths.get(ApiUtils.getIndexDirPath() + indexName)));
                 } catch (IOException e) {
                     LOGGER.warn("Could not add {} to indexes map", indexName);
                 }
@@ -86,32 +99,14 @@ public class ApiResourceManager {
                 LOGGER.info("Adding {} to metadata map", parquetFilename);
 
                 List<SimpleGroup> simpleGroups = new ArrayList<>();
-                ParquetFileReader reader;
-                Configuration conf = new Configuration();
+                Map<String, SimpleGroup> metadataPerIndex = new HashMap<String, SimpleGroup>();
                 try {
-                    reader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(ApiUtils.getParquetDirPath() + parquetFilename), conf));
-                    MessageType schema = reader.getFooter().getFileMetaData().getSchema();
-                    PageReadStore pages;
-                    Map<String, SimpleGroup> metadataPerIndex = new HashMap<String, SimpleGroup>();
-                    while ((pages = reader.readNextRowGroup()) != null) {
-                        long rows = pages.getRowCount();
-                        MessageColumnIO columnIO = new ColumnIOFactory().getColumnIO(schema);
-                        RecordReader recordReader = columnIO.getRecordReader(pages, new GroupRecordConverter(schema));
-
-                        for (int i = 0; i < rows; i++) {
-                            SimpleGroup simpleGroup = (SimpleGroup) recordReader.read();
-                            simpleGroups.add(simpleGroup);
-
-                            if (schema.containsField("record_id")) {
-                                metadataPerIndex.put(simpleGroup.getString("record_id", 0), simpleGroup);
-                            } else {
-                                metadataPerIndex.put(simpleGroup.getString("id", 0), simpleGroup);
-                            }
-                        }
-                    }
+                    ApiUtils.readParquetFile(ApiUtils.getParquetDirPath() + parquetFilename, simpleGroup -> {
+                        simpleGroups.add(simpleGroup);
+                        metadataPerIndex.put(ApiUtils.getId(simpleGroup), simpleGroup);
+                    });
                     metadataGroups.put(parquetFilename.substring(0, parquetFilename.lastIndexOf(".parquet")), simpleGroups);
                     metadata.put(parquetFilename.substring(0, parquetFilename.lastIndexOf(".parquet")), metadataPerIndex);
-                    reader.close();
                 } catch (IllegalArgumentException | IOException e) {
                     LOGGER.warn("Could not add parquet file {} to metadata map", parquetFilename);
                 }
@@ -119,6 +114,141 @@ public class ApiResourceManager {
         }
     }
 
+    /**
+     * Acquires the current searcher of an index. The searcher is opened on first use and then
+     * shared by all requests, as IndexSearcher is thread-safe. If the index has changed on disk,
+     * e.g. because it was rebuilt by IndexBuilder, it is reopened first.
+     * Every acquired searcher must be released with releaseSearcher().
+     * @param index Name of the index
+     * @return IndexSearcher using BM25 for the given index
+     * @throws IOException
+     */
+    public IndexSearcher acquireSearcher(String index) throws IOException {
+        SearcherManager searcherManager = getSearcherManager(index);
+        searcherManager.maybeRefresh();
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Releases a searcher acquired with acquireSearcher(), so that it can be closed once it has been replaced.
+     * @param index Name of the index
+     * @param searcher IndexSearcher returned by acquireSearcher()
+     * @throws IOException
+     */
+    public void releaseSearcher(String index, IndexSearcher searcher) throws IOException {
+        getSearcherManager(index).release(searcher);
+    }
+
+    private SearcherManager getSearcherManager(String index) throws IOException {
+        try {
+            return searcherManagers.computeIfAbsent(index, key -> {
+                try {
+                    LOGGER.info("Opening searcher for index {}", key);
+                    return new SearcherManager(indexes.get(key), new BM25SearcherFactory());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Checks if an index is denormalized, i.e. its documents store the metadata
+     * from the Parquet file themselves (see IndexBuilder). The result is cached
+     * until the reader is replaced, as a rebuilt index may be built differently.
+     * @param reader IndexReader of the index
+     * @return True if the documents of the index contain metadata fields, else false
+     */
+    public boolean isDenormalized(IndexReader reader) {
+        return denormalizedReaders.computeIfAbsent(getCacheKey(reader, denormalizedReaders), key ->
+            FieldInfos.getMergedFieldInfos(reader).fieldInfo(ApiUtils.FIELD_TEXT_SNIPPET) != null);
+    }
+
+    /**
+     * Returns the metadata columns of an index that is not denormalized. The columns are
+     * joined with the Parquet metadata on first use of a reader, which loads every document once.
+     * The join only blocks other callers for the same reader, not searches of any index.
+     * @param index Name of the index
+     * @param reader IndexReader of the index, whose document IDs the columns refer to
+     * @return Language and WARC date of every document of the index
+     * @throws IOException
+     */
+    public MetadataColumns getMetadataColumns(String index, IndexReader reader) throws IOException {
+        try {
+            return metadataColumns.computeIfAbsent(getCacheKey(reader, metadataColumns), key -> {
+                try {
+                    return joinMetadataColumns(index, reader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the key of a reader in a cache and removes its entry once the reader is closed.
+     * @param reader IndexReader of an index
+     * @param cache Cache with one entry per reader
+     * @return Key of the reader
+     */
+    private static IndexReader.CacheKey getCacheKey(IndexReader reader, Map<IndexReader.CacheKey, ?> cache) {
+        IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        IndexReader.CacheKey cacheKey = cacheHelper.getKey();
+        if (!cache.containsKey(cacheKey)) {
+            cacheHelper.addClosedListener(cache::remove);
+        }
+        return cacheKey;
+    }
+
+    /**
+     * Joins the language and WARC date of every document of an index with the Parquet metadata.
+     * @param index Name of the index
+     * @param reader IndexReader of the index
+     * @return Language and WARC date of every document of the index
+     * @throws IOException
+     */
+    private MetadataColumns joinMetadataColumns(String index, IndexReader reader) throws IOException {
+        LOGGER.info("Joining metadata columns for index {}", index);
+        String[] languages = new String[reader.maxDoc()];
+        long[] warcDates = new long[reader.maxDoc()];
+        Arrays.fill(warcDates, MetadataColumns.MISSING_WARC_DATE);
+
+        // Index records by URL without trailing slash, see ApiUtils.isSameUrl()
+        Map<String, SimpleGroup> metadataByUrl = new HashMap<String, SimpleGroup>();
+        for (SimpleGroup simpleGroup : metadataGroups.getOrDefault(index, Collections.emptyList())) {
+            metadataByUrl.put(stripTrailingSlash(ApiUtils.buildParquetUrl(simpleGroup)), simpleGroup);
+        }
+        Map<String, SimpleGroup> metadataById = metadata.getOrDefault(index, Collections.emptyMap());
+
+        Bits liveDocs = MultiBits.getLiveDocs(reader);
+        StoredFields storedFields = reader.storedFields();
+        for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+
+            String luceneValue = storedFields.document(docId).getFields().get(0).stringValue();
+            SimpleGroup simpleGroup = luceneValue.startsWith("http") ? metadataByUrl.get(stripTrailingSlash(luceneValue)) : metadataById.get(luceneValue);
+            if (simpleGroup != null) {
+                languages[docId] = simpleGroup.getString("language", 0).trim().toLowerCase().intern();
+                Long warcDate = ApiUtils.getWarcDate(simpleGroup);
+                if (warcDate != null) {
+                    warcDates[docId] = warcDate;
+                }
+            }
+        }
+
+        return new MetadataColumns(languages, warcDates);
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
     public Map<String, FSDirectory> getIndexes() {
         return indexes;
     }
@@ -130,4 +260,17 @@ public class ApiResourceManager {
     public Map<String, List<SimpleGroup>> getMetadataGroups() {
         return metadataGroups;
     }
+
+    /**
+     * Creates the searchers of SearcherManager, which rank documents with BM25.
+     */
+    private static class BM25SearcherFactory extends SearcherFactory {
+
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25Similarity());
+            return searcher;
+        }
+    }
 }
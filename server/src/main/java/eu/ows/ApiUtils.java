@@ -1,12 +1,26 @@
 package eu.ows;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Consumer;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.document.Document;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.Group;
 import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,12 +37,41 @@ public abstract class ApiUtils {
     public static final String RANKING_ASC = "asc";
     public static final String RANKING_DESC = "desc";
     public static final int DEFAULT_RESULTS_LIMIT = 20;
+    public static final int DEFAULT_TOTAL_HITS_THRESHOLD = 1000;
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final long DEFAULT_SHARD_TIMEOUT_MILLIS = 2000;
+    public static final long DEFAULT_LATENCY_BUDGET_MILLIS = 1000;
+    public static final long MIN_EMBEDDING_BUDGET_MILLIS = 20;
+    public static final int DEFAULT_WARMUP_QUERIES = 100;
+    public static final long DEFAULT_SUGGEST_REBUILD_MINUTES = 60;
+
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CBOR = "cbor";
+    public static final String FORMAT_SMILE = "smile";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+    public static final int MIN_COMPRESSION_BYTES = 1500;
 
     public static final String DEFAULT_INDEX_DIR_PATH = "../resources/lucene/";
     public static final String DEFAULT_PARQUET_DIR_PATH = "../resources/parquet/";
 
+    // Fields of documents in denormalized Lucene indexes
+    public static final String FIELD_CONTENTS = "contents";
+    public static final String FIELD_URL = "url";
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_TEXT_SNIPPET = "textSnippet";
+    public static final String FIELD_LANGUAGE = "language";
+    public static final String FIELD_WARC_DATE = "warcDate";
+    public static final String FIELD_WORD_COUNT = "wordCount";
+
     private static String indexDirPath;
     private static String parquetDirPath;
+    private static boolean parquetEnabled = true;
+    private static IndexDirectoryConfig indexDirectoryConfig = new IndexDirectoryConfig();
 
     private static SimpleDateFormat warcDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
 
@@ -64,6 +107,38 @@ public abstract class ApiUtils {
         parquetDirPath = newParquetDirPath;
     }
 
+    /**
+     * Getter method for the flag if Parquet files are loaded.
+     * @return True if Parquet files are loaded as metadata, else false
+     */
+    public static boolean isParquetEnabled() {
+        return parquetEnabled;
+    }
+
+    /**
+     * Setter method for the flag if Parquet files are loaded.
+     * @param newParquetEnabled False if all indexes are denormalized and need no metadata
+     */
+    public static void setParquetEnabled(boolean newParquetEnabled) {
+        parquetEnabled = newParquetEnabled;
+    }
+
+    /**
+     * Getter method for the configuration of the index directories.
+     * @return Configuration of how index directories are opened
+     */
+    public static IndexDirectoryConfig getIndexDirectoryConfig() {
+        return indexDirectoryConfig;
+    }
+
+    /**
+     * Setter method for the configuration of the index directories.
+     * @param newIndexDirectoryConfig New configuration of how index directories are opened
+     */
+    public static void setIndexDirectoryConfig(IndexDirectoryConfig newIndexDirectoryConfig) {
+        indexDirectoryConfig = newIndexDirectoryConfig;
+    }
+
     /**
      * Builds the full URL out of the fields from the Parquet file of a single record.
      * Reference: https://datatracker.ietf.org/doc/html/rfc3986#section-5.2.2
@@ -166,8 +241,7 @@ public abstract class ApiUtils {
      * @return A deep updated copy of the passed JsonObject
      */
     public static JsonObject updateFieldObject(JsonObject fieldObject, SimpleGroup simpleGroup, boolean setUrl) {
-        String id = (simpleGroup.getType().containsField("record_id")) ? simpleGroup.getString("record_id", 0) : simpleGroup.getString("id", 0);
-        fieldObject.addProperty("id", id);
+        fieldObject.addProperty("id", getId(simpleGroup));
 
         String documentTitle = simpleGroup.getString("title", 0);
         fieldObject.addProperty("title", documentTitle.trim());
@@ -178,21 +252,13 @@ public abstract class ApiUtils {
         String documentLanguage = simpleGroup.getString("language", 0);
         fieldObject.addProperty("language", documentLanguage.trim());
 
-        Object documentWarcDate = null;
-        if (simpleGroup.getType().containsField("record_id")) {
+        Object documentWarcDate = getWarcDate(simpleGroup);
+        if (documentWarcDate == null) {
             documentWarcDate = simpleGroup.getString("warc_date", 0);
-            try {
-                documentWarcDate = warcDateFormat.parse((String) documentWarcDate).getTime() * 1000;
-            } catch (ParseException e) {
-                LOGGER.warn("Exception while parsing date: {}", documentWarcDate);
-            }
-        } else {
-            documentWarcDate = simpleGroup.getLong("warc_date", 0);
         }
         fieldObject.addProperty("warcDate", documentWarcDate.toString());
 
-        int wordCount = simpleGroup.getString("plain_text", 0).split("\\s+").length;
-        fieldObject.addProperty("wordCount", wordCount);
+        fieldObject.addProperty("wordCount", getWordCount(simpleGroup));
 
         if (setUrl) {
             fieldObject.remove("charSequenceValue");
@@ -202,6 +268,86 @@ public abstract class ApiUtils {
         return fieldObject.deepCopy();
     }
 
+    /**
+     * Creates the JsonObject of a document from a denormalized Lucene index, which stores
+     * the metadata itself and therefore needs no Parquet record.
+     * @param document Document stored in the Lucene index
+     * @return JsonObject with the same values as a document enriched by a Parquet record
+     */
+    public static JsonObject createFieldObject(Document document) {
+        JsonObject fieldObject = new JsonObject();
+        fieldObject.addProperty("url", document.get(FIELD_URL));
+        fieldObject.addProperty("id", document.get(FIELD_ID));
+        fieldObject.addProperty("title", document.get(FIELD_TITLE));
+        fieldObject.addProperty("textSnippet", document.get(FIELD_TEXT_SNIPPET));
+        fieldObject.addProperty("language", document.get(FIELD_LANGUAGE));
+        fieldObject.addProperty("warcDate", document.get(FIELD_WARC_DATE));
+        fieldObject.addProperty("wordCount", document.getField(FIELD_WORD_COUNT).numericValue().intValue());
+        return fieldObject;
+    }
+
+    /**
+     * Returns the ID of a record in the Parquet file.
+     * @param simpleGroup Record in Parquet file
+     * @return Record ID or UUID of the record
+     */
+    public static String getId(SimpleGroup simpleGroup) {
+        return (simpleGroup.getType().containsField("record_id")) ? simpleGroup.getString("record_id", 0) : simpleGroup.getString("id", 0);
+    }
+
+    /**
+     * Returns the WARC date of a record in the Parquet file in microseconds.
+     * @param simpleGroup Record in Parquet file
+     * @return WARC date in microseconds or null if the date could not be parsed
+     */
+    public static Long getWarcDate(SimpleGroup simpleGroup) {
+        if (simpleGroup.getType().containsField("record_id")) {
+            String documentWarcDate = simpleGroup.getString("warc_date", 0);
+            try {
+                synchronized (warcDateFormat) {
+                    return warcDateFormat.parse(documentWarcDate).getTime() * 1000;
+                }
+            } catch (ParseException e) {
+                LOGGER.warn("Exception while parsing date: {}", documentWarcDate);
+                return null;
+            }
+        }
+
+        return simpleGroup.getLong("warc_date", 0);
+    }
+
+    /**
+     * Counts the words of the plain text of a record in the Parquet file.
+     * @param simpleGroup Record in Parquet file
+     * @return Number of words in the plain text
+     */
+    public static int getWordCount(SimpleGroup simpleGroup) {
+        return simpleGroup.getString("plain_text", 0).split("\\s+").length;
+    }
+
+    /**
+     * Reads all records of a Parquet file one after another.
+     * @param parquetFilePath Path of the Parquet file
+     * @param recordConsumer Consumer receiving each record of the Parquet file
+     * @throws IOException
+     */
+    public static void readParquetFile(String parquetFilePath, Consumer<SimpleGroup> recordConsumer) throws IOException {
+        Configuration conf = new Configuration();
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(parquetFilePath), conf))) {
+            MessageType schema = reader.getFooter().getFileMetaData().getSchema();
+            PageReadStore pages;
+            while ((pages = reader.readNextRowGroup()) != null) {
+                long rows = pages.getRowCount();
+                MessageColumnIO columnIO = new ColumnIOFactory().getColumnIO(schema);
+                RecordReader<Group> recordReader = columnIO.getRecordReader(pages, new GroupRecordConverter(schema));
+
+                for (int i = 0; i < rows; i++) {
+                    recordConsumer.accept((SimpleGroup) recordReader.read());
+                }
+            }
+        }
+    }
+
     /**
      * Converts a JSON string to a JsonObject.
      * @param jsonString JSON as string
@@ -238,6 +384,15 @@ public abstract class ApiUtils {
         return longestSequence;
     }
 
+    /**
+     * Checks if the given ranking param requires the results to be re-ranked.
+     * @param ranking Type of sort order
+     * @return True if the results have to be sorted by word count, else false
+     */
+    public static boolean isReRanking(String ranking) {
+        return ranking != null && (ranking.equalsIgnoreCase(RANKING_ASC) || ranking.equalsIgnoreCase(RANKING_DESC));
+    }
+
     /**
      * Re-ranks the results of a search by word count in the specified sort order.
      * @param results List of results from a search
@@ -253,7 +408,7 @@ public abstract class ApiUtils {
          * which is currently based on the word count of documents. *
          ************************************************************/
 
-        if (ranking != null && (ranking.equalsIgnoreCase(RANKING_ASC) || ranking.equalsIgnoreCase(RANKING_DESC))) {
+        if (isReRanking(ranking)) {
             Collections.sort(results, new Comparator<JsonObject>() {
 
                 @Override
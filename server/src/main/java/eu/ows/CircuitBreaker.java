@@ -0,0 +1,70 @@
+package eu.ows;
+
+/**
+ * Stops calling a failing service after a number of consecutive failures.
+ * After the open period, a single trial call is allowed (half-open state). If it
+ * succeeds the breaker closes again, otherwise it stays open for another period.
+ */
+public class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private int consecutiveFailures = 0;
+    private long openedAtMillis = 0;
+    private boolean trialInFlight = false;
+
+    /**
+     * Creates a closed circuit breaker.
+     * @param failureThreshold Number of consecutive failures after which the breaker opens
+     * @param openMillis Time in milliseconds the breaker stays open before allowing a trial call
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Checks if a call to the service is allowed.
+     * @return True if the breaker is closed or a trial call is due, else false
+     */
+    public synchronized boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+
+        if (!trialInFlight && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+            trialInFlight = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Records a successful call, which closes the breaker.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a failed call, which opens the breaker once the threshold has been reached.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (consecutiveFailures >= failureThreshold) {
+            openedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records a call that was given up for a reason unrelated to the service, e.g. the
+     * latency budget of the caller. It counts neither as success nor as failure, but ends a trial call.
+     */
+    public synchronized void recordIgnored() {
+        trialInFlight = false;
+    }
+}
@@ -0,0 +1,42 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes sentence embeddings used for the semantic re-ranking of search results.
+ */
+public interface EmbeddingClient {
+
+    /**
+     * Computes the embedding of a text within the given time.
+     * @param content Text to be embedded
+     * @param timeoutMillis Time in milliseconds after which the computation is given up
+     * @return Embedding vector of the text
+     * @throws IOException If the embedding could not be computed in time
+     */
+    float[] computeEmbedding(String content, long timeoutMillis) throws IOException;
+
+    /**
+     * Computes the embeddings of several texts within the given time.
+     * Clients that support batching should override this method.
+     * @param contents Texts to be embedded
+     * @param timeoutMillis Time in milliseconds after which the computation is given up
+     * @return Embedding vector of each text in the same order
+     * @throws IOException If the embeddings could not be computed in time
+     */
+    default List<float[]> computeEmbeddings(List<String> contents, long timeoutMillis) throws IOException {
+        long deadlineNanos = System.nanoTime() + timeoutMillis * 1_000_000;
+        List<float[]> embeddings = new ArrayList<>();
+        for (String content : contents) {
+            long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000;
+            if (remainingMillis <= 0) {
+                throw new IOException("Could not compute embeddings within " + timeoutMillis + " ms");
+            }
+            embeddings.add(computeEmbedding(content, remainingMillis));
+        }
+
+        return embeddings;
+    }
+}
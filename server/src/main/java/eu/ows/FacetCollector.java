@@ -0,0 +1,159 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Counts the hits of a search per language and per month of the WARC date in a single pass.
+ * Values are either read from the DocValues of a denormalized index or from the
+ * metadata columns of an index. Neither stored fields nor scores are loaded.
+ */
+public class FacetCollector extends SimpleCollector {
+
+    private final MetadataColumns metadataColumns;
+
+    private Map<String, Integer> languageCounts = new HashMap<>();
+    private Map<YearMonth, Integer> warcDateCounts = new HashMap<>();
+
+    private int docBase;
+    private SortedDocValues languageDocValues;
+    private NumericDocValues warcDateDocValues;
+    private int[] languageOrdCounts;
+
+    /**
+     * Creates a collector reading values from the metadata columns of an index.
+     * @param metadataColumns Metadata columns of the index or null to read values from DocValues
+     */
+    public FacetCollector(MetadataColumns metadataColumns) {
+        this.metadataColumns = metadataColumns;
+    }
+
+    /**
+     * Creates a manager of facet collectors, so that facets can be collected in the same
+     * pass as the top hits, e.g. by combining both managers in a MultiCollectorManager.
+     * @param metadataColumns Metadata columns of the index or null to read values from DocValues
+     * @return Manager whose result is the JSON object of the summed facet counts
+     */
+    public static CollectorManager<FacetCollector, JsonObject> createManager(MetadataColumns metadataColumns) {
+        return new CollectorManager<FacetCollector, JsonObject>() {
+
+            @Override
+            public FacetCollector newCollector() {
+                return new FacetCollector(metadataColumns);
+            }
+
+            @Override
+            public JsonObject reduce(Collection<FacetCollector> collectors) throws IOException {
+                FacetCollector mergedCollector = new FacetCollector(metadataColumns);
+                for (FacetCollector collector : collectors) {
+                    collector.flushLanguageOrdCounts();
+                    collector.languageCounts.forEach((language, count) -> mergedCollector.languageCounts.merge(language, count, Integer::sum));
+                    collector.warcDateCounts.forEach((month, count) -> mergedCollector.warcDateCounts.merge(month, count, Integer::sum));
+                }
+                return mergedCollector.getFacets();
+            }
+        };
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushLanguageOrdCounts();
+        docBase = context.docBase;
+
+        if (metadataColumns == null) {
+            languageDocValues = DocValues.getSorted(context.reader(), ApiUtils.FIELD_LANGUAGE);
+            warcDateDocValues = DocValues.getNumeric(context.reader(), ApiUtils.FIELD_WARC_DATE);
+            languageOrdCounts = new int[languageDocValues.getValueCount()];
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        if (metadataColumns != null) {
+            String language = metadataColumns.getLanguage(docBase + doc);
+            if (language != null) {
+                languageCounts.merge(language, 1, Integer::sum);
+            }
+            long warcDate = metadataColumns.getWarcDate(docBase + doc);
+            if (warcDate != MetadataColumns.MISSING_WARC_DATE) {
+                countWarcDate(warcDate);
+            }
+            return;
+        }
+
+        // Languages are counted by ordinal and only resolved once per segment
+        if (languageDocValues.advanceExact(doc)) {
+            languageOrdCounts[languageDocValues.ordValue()]++;
+        }
+        if (warcDateDocValues.advanceExact(doc)) {
+            countWarcDate(warcDateDocValues.longValue());
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * Returns the counted facets.
+     * @return JSON object with the number of hits per language and per month of the WARC date
+     * @throws IOException
+     */
+    public JsonObject getFacets() throws IOException {
+        flushLanguageOrdCounts();
+
+        JsonObject languageObject = new JsonObject();
+        new TreeMap<>(languageCounts).forEach(languageObject::addProperty);
+
+        JsonObject warcDateObject = new JsonObject();
+        new TreeMap<>(warcDateCounts).forEach((month, count) -> warcDateObject.addProperty(month.toString(), count));
+
+        JsonObject facetsObject = new JsonObject();
+        facetsObject.add("language", languageObject);
+        facetsObject.add("warcDate", warcDateObject);
+        return facetsObject;
+    }
+
+    /**
+     * Adds a WARC date to the bucket of its month.
+     * @param warcDate WARC date in microseconds
+     */
+    private void countWarcDate(long warcDate) {
+        YearMonth month = YearMonth.from(Instant.ofEpochMilli(warcDate / 1000).atOffset(ZoneOffset.UTC));
+        warcDateCounts.merge(month, 1, Integer::sum);
+    }
+
+    /**
+     * Adds the language counts of the current segment to the total counts.
+     * @throws IOException
+     */
+    private void flushLanguageOrdCounts() throws IOException {
+        if (languageOrdCounts == null) {
+            return;
+        }
+
+        for (int ord = 0; ord < languageOrdCounts.length; ord++) {
+            if (languageOrdCounts[ord] > 0) {
+                languageCounts.merge(languageDocValues.lookupOrd(ord).utf8ToString(), languageOrdCounts[ord], Integer::sum);
+            }
+        }
+        languageOrdCounts = null;
+    }
+}
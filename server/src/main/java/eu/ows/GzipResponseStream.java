@@ -0,0 +1,88 @@
+package eu.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.Context;
+
+/**
+ * Compresses a response with gzip once it exceeds a minimum size, as compressing small
+ * responses costs more time than it saves. The first bytes are buffered until either the
+ * minimum size has been reached, which switches the response to gzip, or the stream is
+ * closed, which writes them uncompressed. Nothing is sent before one of both happens.
+ */
+public class GzipResponseStream extends OutputStream {
+
+    private static final int GZIP_BUFFER_BYTES = 8192;
+
+    private final Context ctx;
+    private final int minCompressionBytes;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private GZIPOutputStream gzipOutputStream;
+
+    /**
+     * Creates a stream writing to the response of a request.
+     * @param ctx Context object of the request
+     * @param minCompressionBytes Size in bytes from which the response is compressed
+     */
+    public GzipResponseStream(Context ctx, int minCompressionBytes) {
+        this.ctx = ctx;
+        this.minCompressionBytes = minCompressionBytes;
+    }
+
+    /**
+     * Checks if the client of a request accepts gzip compressed responses.
+     * @param ctx Context object of the request
+     * @return True if the Accept-Encoding header contains gzip, else false
+     */
+    public static boolean isAccepted(Context ctx) {
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (gzipOutputStream == null) {
+            if (buffer.size() + len < minCompressionBytes) {
+                buffer.write(b, off, len);
+                return;
+            }
+
+            ctx.res().setHeader("Content-Encoding", "gzip");
+            gzipOutputStream = new GZIPOutputStream(ctx.res().getOutputStream(), GZIP_BUFFER_BYTES);
+            buffer.writeTo(gzipOutputStream);
+        }
+        gzipOutputStream.write(b, off, len);
+    }
+
+    /**
+     * Only flushes once the response is compressed, as flushing earlier would send it uncompressed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (gzipOutputStream != null) {
+            gzipOutputStream.flush();
+        }
+    }
+
+    /**
+     * Finishes the response, without closing the output stream of the response itself.
+     */
+    @Override
+    public void close() throws IOException {
+        if (gzipOutputStream == null) {
+            ctx.res().setContentLength(buffer.size());
+            buffer.writeTo(ctx.res().getOutputStream());
+        } else {
+            gzipOutputStream.finish();
+        }
+    }
+}
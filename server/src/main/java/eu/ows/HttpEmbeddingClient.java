@@ -0,0 +1,191 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Computes embeddings by calling an external embedding service over HTTP.
+ * Every call is bounded by the given timeout and by a timeout of the service itself. If the
+ * service has not answered after the hedge delay, a second (hedged) request is sent and the
+ * first answer is used. After repeated failures a circuit breaker stops calling the service
+ * for a while. Only errors of the service and timeouts of the service timeout count as
+ * failures, so that callers with a small latency budget can not open the breaker.
+ */
+public class HttpEmbeddingClient implements EmbeddingClient {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(HttpEmbeddingClient.class);
+
+    public static final String DEFAULT_EMBEDDING_URL = "http://127.0.0.1:5000/embed";
+    public static final MediaType JSON = MediaType.get("application/json");
+
+    private static final long HEDGE_DELAY_MILLIS = 100;
+    private static final long SERVICE_TIMEOUT_MILLIS = 2000;
+    private static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_BREAKER_OPEN_MILLIS = 10000;
+
+    private final String url;
+    private final OkHttpClient client = new OkHttpClient();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(CIRCUIT_BREAKER_FAILURE_THRESHOLD, CIRCUIT_BREAKER_OPEN_MILLIS);
+
+    /**
+     * Creates a client for the embedding service.
+     * @param url URL of the embedding endpoint
+     */
+    public HttpEmbeddingClient(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public float[] computeEmbedding(String content, long timeoutMillis) throws IOException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new IOException("Circuit breaker of embedding service is open");
+        }
+
+        // A timeout only says something about the service if the call was not cut short by the caller
+        boolean limitedByCaller = timeoutMillis < SERVICE_TIMEOUT_MILLIS;
+        long callTimeoutMillis = Math.min(timeoutMillis, SERVICE_TIMEOUT_MILLIS);
+        long deadlineNanos = System.nanoTime() + callTimeoutMillis * 1_000_000;
+        List<Call> calls = new ArrayList<>();
+        boolean succeeded = false;
+        boolean serviceFailed = false;
+        try {
+            CompletableFuture<float[]> firstCall = sendRequest(content, callTimeoutMillis, calls);
+            float[] embedding;
+            try {
+                embedding = firstCall.get(Math.min(HEDGE_DELAY_MILLIS, callTimeoutMillis), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // The first request is slow or failed, send a hedged request with the remaining time
+                long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    throw e;
+                }
+                LOGGER.info("Sending hedged request to embedding service");
+                CompletableFuture<float[]> hedgedCall = sendRequest(content, remainingMillis, calls);
+                embedding = firstSuccessful(firstCall, hedgedCall).get(remainingMillis, TimeUnit.MILLISECONDS);
+            }
+            succeeded = true;
+            return embedding;
+        } catch (TimeoutException | ExecutionException e) {
+            serviceFailed = !(limitedByCaller && isTimeout(e));
+            throw new IOException("Could not compute embedding within " + callTimeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing embedding", e);
+        } finally {
+            // Cancel requests that are still running
+            calls.forEach(Call::cancel);
+
+            // Record every outcome, also interruptions, so that a trial call is never left in flight
+            if (succeeded) {
+                circuitBreaker.recordSuccess();
+            } else if (serviceFailed) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordIgnored();
+            }
+        }
+    }
+
+    /**
+     * Checks if a call failed because its timeout was reached, either while waiting for it
+     * or by the call timeout of OkHttp, rather than because of an error of the service.
+     * @param e Exception thrown while waiting for the call
+     * @return True if the call timed out, else false
+     */
+    private static boolean isTimeout(Exception e) {
+        return e instanceof TimeoutException || e.getCause() instanceof InterruptedIOException;
+    }
+
+    /**
+     * Sends a single request to the embedding service.
+     * @param content Text to be embedded
+     * @param timeoutMillis Timeout of the request in milliseconds
+     * @param calls List the call is added to, so that it can be cancelled
+     * @return Future completed with the embedding or exceptionally if the request failed
+     */
+    private CompletableFuture<float[]> sendRequest(String content, long timeoutMillis, List<Call> calls) {
+        Map<String, String> map = new HashMap<>();
+        map.put("sentence", content);
+        Gson gson = new Gson();
+        RequestBody body = RequestBody.create(gson.toJson(map), JSON);
+        Request request = new Request.Builder()
+                .url(url)
+                .post(body)
+                .build();
+
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        call.timeout().timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        calls.add(call);
+        call.enqueue(new Callback() {
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (!r.isSuccessful()) {
+                        throw new IOException("Embedding service returned status " + r.code());
+                    }
+                    EmbeddingResponse embeddingResponse = gson.fromJson(r.body().string(), EmbeddingResponse.class);
+                    future.complete(embeddingResponse.embeddings[0]);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Combines two requests into one that completes with the first successful embedding.
+     * @param first First request
+     * @param second Second request
+     * @return Future completed with the first embedding or exceptionally if both requests failed
+     */
+    private static CompletableFuture<float[]> firstSuccessful(CompletableFuture<float[]> first, CompletableFuture<float[]> second) {
+        CompletableFuture<float[]> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<float[]> future : List.of(first, second)) {
+            future.whenComplete((embedding, e) -> {
+                if (e == null) {
+                    result.complete(embedding);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    private static class EmbeddingResponse {
+        float[][] embeddings;
+    }
+}
@@ -0,0 +1,206 @@
+package eu.ows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line tool that builds a denormalized Lucene index from a Parquet file.
+ * Each document stores its URL, title, language, WARC date, word count and text snippet,
+ * so that search results need no join with the Parquet metadata at query time.
+ */
+public class IndexBuilder {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(IndexBuilder.class);
+
+    public static final String SORT_WARC_DATE = "warc_date";
+    public static final String SORT_WORD_COUNT = "word_count";
+
+    /**
+     * Handles the arguments and builds the index.
+     * @param args[0] Name of the Parquet file without extension.
+     * @param args[1] Name of the index to be built (optional).
+     * @param args[2] Static quality signal the index is sorted by (optional).
+     * @param args[3] Path of directory containing the Lucene indexes (optional).
+     * @param args[4] Path of directory containing the Parquet files (optional).
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        options.addOption(Option.builder("i")
+            .argName("name").longOpt("input")
+            .hasArg()
+            .required()
+            .desc("Name of the Parquet file without extension")
+            .build());
+        options.addOption(Option.builder("o")
+            .argName("index").longOpt("output-index")
+            .hasArg()
+            .desc("Name of the index to be built (default: name of the Parquet file)")
+            .build());
+        options.addOption(Option.builder("s")
+            .argName("field").longOpt("sort")
+            .hasArg()
+            .desc("Sort the index by " + SORT_WARC_DATE + " (newest first) or " + SORT_WORD_COUNT + " (longest first)")
+            .build());
+        options.addOption(Option.builder("l")
+            .argName("dirPath").longOpt("lucene-dir-path")
+            .hasArg()
+            .desc("Path of directory containing the Lucene index(es)")
+            .build());
+        options.addOption(Option.builder("m")
+            .argName("dirPath").longOpt("parquet-dir-path")
+            .hasArg()
+            .desc("Path of directory containing the Parquet file(s)")
+            .build());
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.err.println("Error: " + e.getMessage());
+            HelpFormatter helpFormatter = new HelpFormatter();
+            helpFormatter.printHelp("<executable or script>", options);
+            System.exit(1);
+        }
+
+        String input = cmd.getOptionValue("i");
+        String outputIndex = cmd.getOptionValue("o", input);
+        String sort = cmd.getOptionValue("s");
+        ApiUtils.setIndexDirPath(cmd.getOptionValue("l", ApiUtils.DEFAULT_INDEX_DIR_PATH));
+        ApiUtils.setParquetDirPath(cmd.getOptionValue("m", ApiUtils.DEFAULT_PARQUET_DIR_PATH));
+
+        String parquetFilePath = ApiUtils.getParquetDirPath() + input + ".parquet";
+        if (!new File(parquetFilePath).isFile()) {
+            parquetFilePath += ".gz";
+        }
+
+        try {
+            buildIndex(parquetFilePath, ApiUtils.getIndexDirPath() + outputIndex, createIndexSort(sort));
+        } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
+            LOGGER.error("Could not build index {} from {}: {}", outputIndex, parquetFilePath, e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the sort order of the index from the sort argument.
+     * @param sort Static quality signal the index is sorted by
+     * @return Sort order of the index or null if the index is not sorted
+     */
+    private static Sort createIndexSort(String sort) {
+        if (sort == null) {
+            return null;
+        }
+
+        switch (sort) {
+            case SORT_WARC_DATE:
+                return new Sort(new SortField(ApiUtils.FIELD_WARC_DATE, SortField.Type.LONG, true));
+            case SORT_WORD_COUNT:
+                return new Sort(new SortField(ApiUtils.FIELD_WORD_COUNT, SortField.Type.INT, true));
+            default:
+                throw new IllegalArgumentException("Unknown sort " + sort);
+        }
+    }
+
+    /**
+     * Writes one document per record of the Parquet file to a new Lucene index.
+     * @param parquetFilePath Path of the Parquet file
+     * @param indexPath Path of the Lucene index to be built
+     * @param indexSort Sort order of the index or null
+     * @throws IOException
+     */
+    private static void buildIndex(String parquetFilePath, String indexPath, Sort indexSort) throws IOException {
+        LOGGER.info("Building index {} from {}", indexPath, parquetFilePath);
+
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        if (indexSort != null) {
+            LOGGER.info("Sorting index by {}", indexSort);
+            config.setIndexSort(indexSort);
+        }
+
+        try (FSDirectory dir = FSDirectory.open(Paths.get(indexPath));
+             IndexWriter writer = new IndexWriter(dir, config)) {
+            ApiUtils.readParquetFile(parquetFilePath, simpleGroup -> {
+                try {
+                    writer.addDocument(createDocument(simpleGroup));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            LOGGER.info("Added {} documents, merging segments", writer.getDocStats().numDocs);
+            writer.forceMerge(1);
+        }
+    }
+
+    /**
+     * Creates a Lucene document containing the metadata of a record in the Parquet file.
+     * @param simpleGroup Record in Parquet file
+     * @return Document with a searchable contents field and stored metadata fields
+     */
+    private static Document createDocument(SimpleGroup simpleGroup) {
+
+        /************************************************************
+         * MARKER-DENORMALIZED-FIELDS                               *
+         * Here the fields of a denormalized document are created.  *
+         * They have to match ApiUtils.createFieldObject(), which   *
+         * turns them into a search result.                         *
+         ************************************************************/
+
+        Document document = new Document();
+
+        String documentText = simpleGroup.getString("plain_text", 0);
+        document.add(new TextField(ApiUtils.FIELD_CONTENTS, documentText, Field.Store.NO));
+
+        document.add(new StoredField(ApiUtils.FIELD_URL, ApiUtils.buildParquetUrl(simpleGroup)));
+        document.add(new StringField(ApiUtils.FIELD_ID, ApiUtils.getId(simpleGroup), Field.Store.YES));
+        document.add(new StoredField(ApiUtils.FIELD_TITLE, simpleGroup.getString("title", 0).trim()));
+        document.add(new StoredField(ApiUtils.FIELD_TEXT_SNIPPET, ApiUtils.longestSequence(documentText).trim()));
+
+        // Language is stored as is, while filtering and DocValues use lower case
+        String documentLanguage = simpleGroup.getString("language", 0).trim();
+        document.add(new StoredField(ApiUtils.FIELD_LANGUAGE, documentLanguage));
+        document.add(new StringField(ApiUtils.FIELD_LANGUAGE, documentLanguage.toLowerCase(), Field.Store.NO));
+        document.add(new SortedDocValuesField(ApiUtils.FIELD_LANGUAGE, new BytesRef(documentLanguage.toLowerCase())));
+
+        Long documentWarcDate = ApiUtils.getWarcDate(simpleGroup);
+        if (documentWarcDate != null) {
+            document.add(new StoredField(ApiUtils.FIELD_WARC_DATE, documentWarcDate.toString()));
+            document.add(new NumericDocValuesField(ApiUtils.FIELD_WARC_DATE, documentWarcDate));
+        }
+
+        int wordCount = ApiUtils.getWordCount(simpleGroup);
+        document.add(new StoredField(ApiUtils.FIELD_WORD_COUNT, wordCount));
+        document.add(new NumericDocValuesField(ApiUtils.FIELD_WORD_COUNT, wordCount));
+
+        return document;
+    }
+}
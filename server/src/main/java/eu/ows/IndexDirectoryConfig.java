@@ -0,0 +1,125 @@
+package eu.ows;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configures how the directory of each Lucene index is opened.
+ * The configuration is a properties file with keys per index name or "default", e.g.
+ * <pre>
+ * default.directory=mmap
+ * default.preload=tip,tim,doc,dvd
+ * demo-graz.preload=all
+ * </pre>
+ * Supported directories are "mmap", "nio" and "fs" (Lucene's choice). Preload takes
+ * the extensions of the index files that are loaded into memory when an index is opened,
+ * e.g. tip/tim for term dictionaries, doc/pos for postings and dvd for DocValues.
+ * Preloading needs a memory-mapped directory, so it implies "mmap" if no directory is set.
+ */
+public class IndexDirectoryConfig {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(IndexDirectoryConfig.class);
+
+    public static final String DIRECTORY_MMAP = "mmap";
+    public static final String DIRECTORY_NIO = "nio";
+    public static final String DIRECTORY_FS = "fs";
+    public static final String PRELOAD_ALL = "all";
+
+    private static final String DEFAULT_KEY = "default";
+
+    private final Properties properties = new Properties();
+
+    /**
+     * Creates a configuration that opens every index with Lucene's default directory.
+     */
+    public IndexDirectoryConfig() {
+    }
+
+    /**
+     * Reads the configuration from a properties file.
+     * @param configPath Path of the properties file
+     * @throws IOException
+     */
+    public IndexDirectoryConfig(String configPath) throws IOException {
+        try (InputStream inputStream = new FileInputStream(configPath)) {
+            properties.load(inputStream);
+        }
+    }
+
+    /**
+     * Opens the directory of an index as configured.
+     * @param index Name of the index
+     * @param path Path of the index directory
+     * @return Opened directory
+     * @throws IOException
+     */
+    public FSDirectory openDirectory(String index, Path path) throws IOException {
+        String directory = getDirectory(index);
+        Set<String> preloadExtensions = getPreloadExtensions(index);
+        if (!directory.equals(DIRECTORY_MMAP) && !preloadExtensions.isEmpty()) {
+            LOGGER.warn("Ignoring preload of index {}, as it is only supported by directory {}", index, DIRECTORY_MMAP);
+        }
+
+        switch (directory) {
+            case DIRECTORY_MMAP:
+                MMapDirectory mmapDirectory = new MMapDirectory(path);
+                if (preloadExtensions.contains(PRELOAD_ALL)) {
+                    mmapDirectory.setPreload(MMapDirectory.ALL_FILES);
+                } else if (!preloadExtensions.isEmpty()) {
+                    mmapDirectory.setPreload((fileName, context) -> preloadExtensions.contains(getExtension(fileName)));
+                }
+                return mmapDirectory;
+            case DIRECTORY_NIO:
+                return new NIOFSDirectory(path);
+            case DIRECTORY_FS:
+                return FSDirectory.open(path);
+            default:
+                throw new IOException("Unknown directory " + directory + " for index " + index);
+        }
+    }
+
+    /**
+     * Returns a description of the configuration of an index for logging.
+     * @param index Name of the index
+     * @return Directory and preloaded extensions of the index
+     */
+    public String describe(String index) {
+        return getDirectory(index) + " (preload: " + getPreloadExtensions(index) + ")";
+    }
+
+    private String getDirectory(String index) {
+        return getProperty(index, "directory", getPreloadExtensions(index).isEmpty() ? DIRECTORY_FS : DIRECTORY_MMAP);
+    }
+
+    private Set<String> getPreloadExtensions(String index) {
+        Set<String> extensions = new HashSet<>();
+        for (String extension : getProperty(index, "preload", "").split(",")) {
+            if (!extension.trim().isEmpty()) {
+                extensions.add(extension.trim().toLowerCase());
+            }
+        }
+
+        return extensions;
+    }
+
+    private String getProperty(String index, String key, String defaultValue) {
+        return properties.getProperty(index + "." + key, properties.getProperty(DEFAULT_KEY + "." + key, defaultValue)).trim();
+    }
+
+    private static String getExtension(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return (index == -1) ? "" : fileName.substring(index + 1);
+    }
+}
@@ -0,0 +1,56 @@
+package eu.ows;
+
+/**
+ * Time a single search request may spend, starting from its arrival.
+ * Steps that would exceed the budget are skipped and the result is marked as degraded.
+ */
+public class LatencyBudget {
+
+    private final long deadlineNanos;
+    private volatile boolean degraded = false;
+
+    /**
+     * Creates a budget that runs out after the given time from now.
+     * @param budgetMillis Time in milliseconds available for the request
+     */
+    public LatencyBudget(long budgetMillis) {
+        this(budgetMillis, System.nanoTime());
+    }
+
+    /**
+     * Creates a budget that runs out after the given time from the arrival of the request,
+     * so that queued work does not get a fresh budget when it is started.
+     * @param budgetMillis Time in milliseconds available for the request
+     * @param arrivalNanos Value of System.nanoTime() when the request arrived
+     */
+    public LatencyBudget(long budgetMillis, long arrivalNanos) {
+        this.deadlineNanos = arrivalNanos + budgetMillis * 1_000_000;
+    }
+
+    /**
+     * Returns the time left until the budget runs out.
+     * @return Remaining time in milliseconds, which is 0 if the budget has run out
+     */
+    public long remainingMillis() {
+        return Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * Checks if the budget has run out or a step has already been skipped.
+     * @return True if no further optional steps should be done, else false
+     */
+    public boolean isExhausted() {
+        return degraded || remainingMillis() == 0;
+    }
+
+    /**
+     * Marks the result of the request as degraded, because a step has been skipped.
+     */
+    public void degrade() {
+        degraded = true;
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+}
@@ -0,0 +1,36 @@
+package eu.ows;
+
+/**
+ * Stores the language and WARC date of every document of a Lucene index, indexed by document ID.
+ * The columns are joined once with the Parquet metadata, so that facets can be counted
+ * for indexes without DocValues without loading any stored fields at query time.
+ */
+public class MetadataColumns {
+    public static final long MISSING_WARC_DATE = Long.MIN_VALUE;
+
+    private String[] languages;
+    private long[] warcDates;
+
+    public MetadataColumns(String[] languages, long[] warcDates) {
+        this.languages = languages;
+        this.warcDates = warcDates;
+    }
+
+    /**
+     * Returns the language of a document in lower case.
+     * @param docId Document ID within the index
+     * @return Language of the document or null if it has no metadata
+     */
+    public String getLanguage(int docId) {
+        return languages[docId];
+    }
+
+    /**
+     * Returns the WARC date of a document in microseconds.
+     * @param docId Document ID within the index
+     * @return WARC date of the document or MISSING_WARC_DATE if it has no metadata
+     */
+    public long getWarcDate(int docId) {
+        return warcDates[docId];
+    }
+}
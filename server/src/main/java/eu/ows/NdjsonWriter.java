@@ -0,0 +1,80 @@
+package eu.ows;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Writes search hits as newline delimited JSON and flushes every line,
+ * so that clients can process a hit before the search has finished.
+ * A complete result ends with a summary line, containing the number of hits, flags and facets.
+ * If the search fails after the first hit has been sent, the last line is an error object instead.
+ */
+public class NdjsonWriter implements Consumer<JsonObject>, Closeable {
+
+    private final Writer writer;
+    private boolean hasWrittenLines = false;
+
+    public NdjsonWriter(OutputStream outputStream) {
+        writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a single hit as one line and flushes it to the client.
+     * @param hitObject JsonObject of an enriched hit
+     */
+    @Override
+    public void accept(JsonObject hitObject) {
+        try {
+            writeLine(hitObject);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the summary of the search as the last line, which marks the result as complete.
+     * @param summaryObject JsonObject containing the number of hits, flags and facets
+     * @throws IOException
+     */
+    public void writeSummary(JsonObject summaryObject) throws IOException {
+        JsonObject lineObject = new JsonObject();
+        lineObject.add("summary", summaryObject);
+        writeLine(lineObject);
+    }
+
+    /**
+     * Writes an error as the last line, as the status of the response has already been sent.
+     * @param errorObject JsonObject containing the error
+     * @throws IOException
+     */
+    public void writeError(JsonObject errorObject) throws IOException {
+        writeLine(errorObject);
+    }
+
+    private void writeLine(JsonObject lineObject) throws IOException {
+        writer.write(lineObject.toString());
+        writer.write('\n');
+        writer.flush();
+        hasWrittenLines = true;
+    }
+
+    /**
+     * Flushes the written lines. If no line has been written, nothing is flushed, as a flush
+     * would send the status of the response before an error can replace it with a 500.
+     */
+    @Override
+    public void close() throws IOException {
+        if (hasWrittenLines) {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Computes embeddings in the JVM with a local ONNX sentence embedding model on the CPU.
+ * The model directory must contain the exported model as model.onnx and its vocabulary as
+ * vocab.txt, e.g. of sentence-transformers/all-MiniLM-L6-v2. Texts are embedded in batches
+ * on a dedicated thread pool, using mean pooling over the tokens and L2 normalization.
+ */
+public class OnnxEmbeddingClient implements EmbeddingClient {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OnnxEmbeddingClient.class);
+
+    public static final String MODEL_FILENAME = "model.onnx";
+    public static final String VOCABULARY_FILENAME = "vocab.txt";
+
+    private static final int MAX_SEQUENCE_LENGTH = 256;
+    private static final List<String> TOKEN_EMBEDDINGS_OUTPUT_NAMES = List.of("token_embeddings", "last_hidden_state");
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final String tokenEmbeddingsOutputName;
+    private final WordPieceTokenizer tokenizer;
+    private final ExecutorService inferenceExecutor;
+
+    /**
+     * Loads the model and its vocabulary from disk.
+     * @param modelDirPath Path of the directory containing model.onnx and vocab.txt
+     * @param numThreads Number of threads used for inference
+     * @throws IOException
+     */
+    public OnnxEmbeddingClient(Path modelDirPath, int numThreads) throws IOException {
+        LOGGER.info("Loading embedding model from {}", modelDirPath);
+        tokenizer = new WordPieceTokenizer(modelDirPath.resolve(VOCABULARY_FILENAME), MAX_SEQUENCE_LENGTH);
+        environment = OrtEnvironment.getEnvironment();
+        try {
+            // Each inference runs single-threaded, parallelism comes from the thread pool
+            OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
+            sessionOptions.setIntraOpNumThreads(1);
+            session = environment.createSession(modelDirPath.resolve(MODEL_FILENAME).toString(), sessionOptions);
+            tokenEmbeddingsOutputName = findTokenEmbeddingsOutputName(session);
+            LOGGER.info("Using output {} of embedding model", tokenEmbeddingsOutputName);
+        } catch (OrtException e) {
+            throw new IOException("Could not load embedding model", e);
+        }
+        inferenceExecutor = Executors.newFixedThreadPool(numThreads);
+    }
+
+    /**
+     * Finds the output of the model containing the embedding of every token. Exports differ in
+     * the name and order of their outputs, e.g. some put the pooled sentence embedding first.
+     * @param session Session of the loaded model
+     * @return Name of the output with the token embeddings
+     * @throws OrtException
+     * @throws IOException If the model has no output with token embeddings
+     */
+    private static String findTokenEmbeddingsOutputName(OrtSession session) throws OrtException, IOException {
+        Map<String, NodeInfo> outputInfos = session.getOutputInfo();
+        for (String outputName : TOKEN_EMBEDDINGS_OUTPUT_NAMES) {
+            if (outputInfos.containsKey(outputName)) {
+                return outputName;
+            }
+        }
+
+        // Otherwise use the first output with the shape [batch, tokens, dimensions]
+        for (NodeInfo outputInfo : outputInfos.values()) {
+            if (outputInfo.getInfo() instanceof TensorInfo && ((TensorInfo) outputInfo.getInfo()).getShape().length == 3) {
+                return outputInfo.getName();
+            }
+        }
+
+        throw new IOException("Embedding model has no output with token embeddings, outputs are " + outputInfos.keySet());
+    }
+
+    @Override
+    public float[] computeEmbedding(String content, long timeoutMillis) throws IOException {
+        return computeEmbeddings(Collections.singletonList(content), timeoutMillis).get(0);
+    }
+
+    @Override
+    public List<float[]> computeEmbeddings(List<String> contents, long timeoutMillis) throws IOException {
+        Future<List<float[]>> future = inferenceExecutor.submit(() -> runInference(contents));
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Could not compute embeddings within " + timeoutMillis + " ms", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute embeddings", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing embeddings", e);
+        }
+    }
+
+    /**
+     * Runs the model on a batch of texts.
+     * @param contents Texts to be embedded
+     * @return Normalized embedding of each text in the same order
+     * @throws OrtException
+     */
+    private List<float[]> runInference(List<String> contents) throws OrtException {
+        // Pad all token sequences of the batch to the same length
+        List<long[]> tokenIds = new ArrayList<>();
+        int sequenceLength = 0;
+        for (String content : contents) {
+            long[] ids = tokenizer.tokenize(content);
+            tokenIds.add(ids);
+            sequenceLength = Math.max(sequenceLength, ids.length);
+        }
+
+        long[][] inputIds = new long[contents.size()][sequenceLength];
+        long[][] attentionMask = new long[contents.size()][sequenceLength];
+        long[][] tokenTypeIds = new long[contents.size()][sequenceLength];
+        for (int i = 0; i < tokenIds.size(); i++) {
+            long[] ids = tokenIds.get(i);
+            System.arraycopy(ids, 0, inputIds[i], 0, ids.length);
+            for (int j = 0; j < ids.length; j++) {
+                attentionMask[i][j] = 1;
+            }
+        }
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, inputIds));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, attentionMask));
+            if (session.getInputNames().contains("token_type_ids")) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, tokenTypeIds));
+            }
+
+            try (OrtSession.Result result = session.run(inputs, Collections.singleton(tokenEmbeddingsOutputName))) {
+                float[][][] tokenEmbeddings = (float[][][]) result.get(0).getValue();
+                List<float[]> embeddings = new ArrayList<>();
+                for (int i = 0; i < contents.size(); i++) {
+                    embeddings.add(meanPooling(tokenEmbeddings[i], attentionMask[i]));
+                }
+                return embeddings;
+            }
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+        }
+    }
+
+    /**
+     * Averages the embeddings of all tokens of a text that are not padding and normalizes the result.
+     * @param tokenEmbeddings Embedding of every token of the text
+     * @param attentionMask Mask that is 1 for tokens and 0 for padding
+     * @return Embedding of the text with a length of 1
+     */
+    private static float[] meanPooling(float[][] tokenEmbeddings, long[] attentionMask) {
+        float[] embedding = new float[tokenEmbeddings[0].length];
+        int numTokens = 0;
+        for (int j = 0; j < tokenEmbeddings.length; j++) {
+            if (attentionMask[j] == 0) {
+                continue;
+            }
+            for (int k = 0; k < embedding.length; k++) {
+                embedding[k] += tokenEmbeddings[j][k];
+            }
+            numTokens++;
+        }
+
+        double norm = 0.0;
+        for (int k = 0; k < embedding.length; k++) {
+            embedding[k] /= numTokens;
+            norm += embedding[k] * embedding[k];
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int k = 0; k < embedding.length; k++) {
+                embedding[k] /= norm;
+            }
+        }
+
+        return embedding;
+    }
+}
@@ -0,0 +1,199 @@
+package eu.ows;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends the queries of search requests to a file, one line with index and query per request.
+ * The most recent queries are replayed to warm up the application after a restart.
+ * Queries are written by a background thread, so that requests never wait for the disk.
+ * Once the file exceeds its maximum size, it is rotated to a single backup file.
+ */
+public class QueryLog {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(QueryLog.class);
+
+    private static final String SEPARATOR = "\t";
+    private static final int MAX_PENDING_ENTRIES = 10000;
+    private static final long MAX_FILE_BYTES = 64L * 1024 * 1024;
+    private static final int TAIL_CHUNK_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final Path rotatedPath;
+    private final BlockingQueue<String> pendingEntries = new ArrayBlockingQueue<>(MAX_PENDING_ENTRIES);
+
+    private BufferedWriter writer;
+    private long fileBytes;
+
+    /**
+     * Creates the log and starts its background writer.
+     * @param path Path of the log file
+     */
+    public QueryLog(Path path) {
+        this.path = path;
+        this.rotatedPath = path.resolveSibling(path.getFileName() + ".1");
+
+        Thread writerThread = new Thread(this::writeEntries, "query-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Hands a query to the background writer. If the writer falls behind, the query is dropped,
+     * as logging must neither fail nor slow down the request.
+     * @param index Index param
+     * @param queryString Query as string
+     */
+    public void append(String index, String queryString) {
+        if (!pendingEntries.offer(index + SEPARATOR + queryString.replaceAll("\\s+", " "))) {
+            LOGGER.debug("Dropping query, the query log is behind");
+        }
+    }
+
+    /**
+     * Writes the pending entries to the file until the application stops. All entries that
+     * are pending at once are written together and flushed once.
+     */
+    private void writeEntries() {
+        List<String> entries = new ArrayList<>();
+        while (true) {
+            try {
+                entries.add(pendingEntries.take());
+                pendingEntries.drainTo(entries);
+
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    fileBytes = Files.size(path);
+                }
+                for (String entry : entries) {
+                    writer.write(entry);
+                    writer.newLine();
+                    fileBytes += entry.getBytes(StandardCharsets.UTF_8).length + 1;
+                }
+                writer.flush();
+
+                if (fileBytes >= MAX_FILE_BYTES) {
+                    rotate();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.warn("Could not append queries to {}: {}", path, e.getMessage());
+                closeWriter();
+            } finally {
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the backup file with the current file, which is then started anew.
+     * @throws IOException
+     */
+    private synchronized void rotate() throws IOException {
+        LOGGER.info("Rotating query log {}", path);
+        closeWriter();
+        Files.move(path, rotatedPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeWriter() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not close {}: {}", path, e.getMessage());
+        }
+        writer = null;
+    }
+
+    /**
+     * Reads the most recent queries of the log. Only the end of the file is read,
+     * and the backup file if the current file does not contain enough queries.
+     * @param numQueries Maximum number of queries to be read
+     * @return Pairs of index and query, starting with the oldest query
+     */
+    public synchronized List<String[]> readRecent(int numQueries) {
+        List<String[]> queries = new ArrayList<>();
+        try {
+            List<String> lines = readLastLines(path, numQueries);
+            if (lines.size() < numQueries) {
+                List<String> rotatedLines = readLastLines(rotatedPath, numQueries - lines.size());
+                rotatedLines.addAll(lines);
+                lines = rotatedLines;
+            }
+
+            for (String line : lines) {
+                String[] query = line.split(SEPARATOR, 2);
+                if (query.length == 2) {
+                    queries.add(query);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read queries from {}: {}", path, e.getMessage());
+        }
+
+        return queries;
+    }
+
+    /**
+     * Reads the last lines of a file by scanning it backwards from its end.
+     * @param filePath Path of the file
+     * @param numLines Maximum number of lines to be read
+     * @return Last lines of the file, starting with the oldest line
+     * @throws IOException
+     */
+    private static List<String> readLastLines(Path filePath, int numLines) throws IOException {
+        if (numLines <= 0 || !Files.isRegularFile(filePath)) {
+            return new ArrayList<>();
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath.toFile(), "r")) {
+            long end = file.length();
+
+            // Find the start of the last lines, counting the newline that ends the last line
+            long start = end;
+            int numNewlines = 0;
+            byte[] chunk = new byte[TAIL_CHUNK_BYTES];
+            findStart:
+            while (start > 0) {
+                int chunkBytes = (int) Math.min(chunk.length, start);
+                long chunkStart = start - chunkBytes;
+                file.seek(chunkStart);
+                file.readFully(chunk, 0, chunkBytes);
+                for (int i = chunkBytes - 1; i >= 0; i--) {
+                    if (chunk[i] == '\n' && ++numNewlines > numLines) {
+                        start = chunkStart + i + 1;
+                        break findStart;
+                    }
+                }
+                start = chunkStart;
+            }
+
+            byte[] tail = new byte[(int) (end - start)];
+            file.seek(start);
+            file.readFully(tail);
+
+            List<String> lines = new ArrayList<>();
+            for (String line : new String(tail, StandardCharsets.UTF_8).split("\r?\n")) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return new ArrayList<>(lines.subList(Math.max(0, lines.size() - numLines), lines.size()));
+        }
+    }
+}
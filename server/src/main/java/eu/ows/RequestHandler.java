@@ -1,21 +1,44 @@
 package eu.ows;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollectorManager;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.parquet.example.data.simple.SimpleGroup;
 import org.slf4j.Logger;
@@ -25,20 +48,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
-
-import com.google.gson.Gson;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-import okhttp3.MediaType;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 
 import io.javalin.http.Context;
 
 /**
- * Handles GET requests and returns responses.
+ * Handles GET and POST requests and returns responses.
  */
 public class RequestHandler {
 
@@ -48,12 +66,18 @@ public class RequestHandler {
     private Map<String, List<SimpleGroup>> metadataGroups;
     private Map<String, Map<String, SimpleGroup>> metadata;
 
-    private final OkHttpClient client = new OkHttpClient();
-    public static final MediaType JSON = MediaType.get("application/json");
+    private Map<String, CompletableFuture<float[]>> embeddings = new ConcurrentHashMap<>();
+
+    private final ExecutorService batchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
-    private Map<String, float[]> embeddings = new HashMap<>();
+    private final ObjectWriter objectWriter = new ObjectMapper().writer();
     
-    public RequestHandler() {
+    private final EmbeddingClient embeddingClient;
+
+    private QueryLog queryLog;
+
+    public RequestHandler(EmbeddingClient embeddingClient) {
+        this.embeddingClient = embeddingClient;
         ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
         indexes = apiResourceManager.getIndexes();
         metadataGroups = apiResourceManager.getMetadataGroups();
@@ -80,15 +104,33 @@ public class RequestHandler {
         String lang = ctx.queryParam("lang");
         String ranking = ctx.queryParam("ranking");
         int numHitsLimit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(ApiUtils.DEFAULT_RESULTS_LIMIT);
+        String format = ctx.queryParam("format");
+        boolean fastMode = ctx.queryParamAsClass("fast", Boolean.class).getOrDefault(false);
+        boolean facets = ctx.queryParamAsClass("facets", Boolean.class).getOrDefault(false);
+        long budgetMillis = ctx.queryParamAsClass("budget", Long.class).getOrDefault(ApiUtils.DEFAULT_LATENCY_BUDGET_MILLIS);
+        LatencyBudget budget = new LatencyBudget(budgetMillis);
         LOGGER.info("Query: {}", query.toString("contents"));
         LOGGER.info("Index: {}", index);
         LOGGER.info("Lang: {}", lang);
         LOGGER.info("Ranking: {}", ranking);
         LOGGER.info("Limit: {}", numHitsLimit);
+        LOGGER.info("Format: {}", format);
+        LOGGER.info("Fast mode: {}", fastMode);
+        LOGGER.info("Facets: {}", facets);
+        LOGGER.info("Budget: {}", budgetMillis);
 
         String indexPath = ApiUtils.getIndexDirPath() + index;
         LOGGER.info("Used index for search request: {}", indexPath);
 
+        // The format and the compression depend on headers, so caches must not share responses across them
+        ctx.res().setHeader("Vary", "Accept, Accept-Encoding");
+
+        String responseFormat = negotiateFormat(ctx, format);
+        if (responseFormat == null) {
+            ctx.result("The format must be json, ndjson, cbor or smile").status(400);
+            return;
+        }
+
         if (!indexes.containsKey(index)) {
             ctx.result("The index could not be found").status(404);
             return;
@@ -99,6 +141,11 @@ public class RequestHandler {
             return;
         }
 
+        // Only valid requests are logged, as the log is replayed on start and feeds the suggesters
+        if (queryLog != null) {
+            queryLog.append(index, ctx.queryParam("q"));
+        }
+
         // Create index from file system directory
         FSDirectory indexDir = indexes.get(index);
 
@@ -106,21 +153,280 @@ public class RequestHandler {
         boolean indexExists = DirectoryReader.indexExists(indexDir);
         LOGGER.info("Index exists: {}", indexExists);
 
-        // Create index reader and index searcher
-        IndexReader reader = DirectoryReader.open(indexDir);
-        IndexSearcher searcher = createSearcher(indexPath);
-        searcher.setSimilarity(new BM25Similarity());
+        // Use the index searcher shared by all requests
+        ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
+        IndexSearcher searcher = apiResourceManager.acquireSearcher(index);
+        try {
+            IndexReader reader = searcher.getIndexReader();
+
+            if (ApiUtils.FORMAT_NDJSON.equals(responseFormat)) {
+                // Stream each hit as a single JSON line as soon as it has been enriched
+                LOGGER.info("Streaming results");
+                ctx.contentType(ApiUtils.NDJSON_CONTENT_TYPE);
+                try (NdjsonWriter ndjsonWriter = new NdjsonWriter(ctx.res().getOutputStream())) {
+                    try {
+                        JsonObject summaryObject;
+                        if (ApiUtils.isReRanking(ranking) && hasMetadata(reader, index)) {
+                            // Re-ranking needs all hits, so they can only be written once the search is done
+                            summaryObject = fetchResult(reader, searcher, query, index, lang, ranking, numHitsLimit, fastMode, facets, budget);
+                            summaryObject.remove("results").getAsJsonArray().forEach(element -> ndjsonWriter.accept(element.getAsJsonObject()));
+                        } else {
+                            summaryObject = streamResult(reader, searcher, query, index, lang, numHitsLimit, fastMode, facets, budget, ndjsonWriter);
+                        }
 
-        // Fetch search result as JSON object
-        JsonObject result = fetchResult(reader, searcher, query, index, lang, ranking, numHitsLimit);
+                        // The last line reports the number of hits and whether the result is degraded
+                        ndjsonWriter.writeSummary(summaryObject);
+                    } catch (IOException | RuntimeException e) {
+                        if (!ctx.res().isCommitted()) {
+                            // Nothing has been sent yet, so the request can still fail with a 500
+                            throw e;
+                        }
+                        LOGGER.warn("Streaming results failed: {}", e);
+                        ndjsonWriter.writeError(createErrorObject("The search could not be completed", 500));
+                    }
+                }
+            } else {
+                // Fetch the whole search result before anything is written, so that errors still return a 500
+                JsonObject result = fetchResult(reader, searcher, query, index, lang, ranking, numHitsLimit, fastMode, facets, budget);
+
+                // Return data, serialized directly to the response
+                LOGGER.info("Returning results");
+                ctx.contentType(getContentType(responseFormat));
+                try (OutputStream outputStream = createOutputStream(ctx)) {
+                    new ResultWriter(responseFormat).write(result, outputStream);
+                }
+            }
+        } finally {
+            apiResourceManager.releaseSearcher(index, searcher);
+        }
+    }
 
-        // Return data
-        LOGGER.info("Returning results");
+    /**
+     * Chooses the format of a search response. The format param takes precedence over
+     * the Accept header of the request, and JSON is returned by default.
+     * @param ctx Context object required to handle HTTP request
+     * @param format Format param
+     * @return Format of the response or null if the format param is not supported
+     */
+    private String negotiateFormat(Context ctx, String format) {
+        if (format != null) {
+            String lowerCaseFormat = format.toLowerCase();
+            List<String> formats = Arrays.asList(ApiUtils.FORMAT_JSON, ApiUtils.FORMAT_NDJSON, ApiUtils.FORMAT_CBOR, ApiUtils.FORMAT_SMILE);
+            return formats.contains(lowerCaseFormat) ? lowerCaseFormat : null;
+        }
+
+        String accept = ctx.header("Accept");
+        if (accept != null) {
+            if (accept.contains(ApiUtils.NDJSON_CONTENT_TYPE)) {
+                return ApiUtils.FORMAT_NDJSON;
+            }
+            if (accept.contains(ApiUtils.CBOR_CONTENT_TYPE)) {
+                return ApiUtils.FORMAT_CBOR;
+            }
+            if (accept.contains(ApiUtils.SMILE_CONTENT_TYPE)) {
+                return ApiUtils.FORMAT_SMILE;
+            }
+        }
+
+        return ApiUtils.FORMAT_JSON;
+    }
+
+    private String getContentType(String responseFormat) {
+        switch (responseFormat) {
+            case ApiUtils.FORMAT_CBOR:
+                return ApiUtils.CBOR_CONTENT_TYPE;
+            case ApiUtils.FORMAT_SMILE:
+                return ApiUtils.SMILE_CONTENT_TYPE;
+            default:
+                return ApiUtils.JSON_CONTENT_TYPE;
+        }
+    }
+
+    /**
+     * Creates the stream a complete search result is written to. If the client accepts gzip,
+     * results exceeding the minimum size are compressed.
+     * @param ctx Context object required to handle HTTP request
+     * @return Output stream of the response
+     * @throws IOException
+     */
+    private OutputStream createOutputStream(Context ctx) throws IOException {
+        if (GzipResponseStream.isAccepted(ctx)) {
+            return new GzipResponseStream(ctx, ApiUtils.MIN_COMPRESSION_BYTES);
+        }
+
+        return ctx.res().getOutputStream();
+    }
+
+    /**
+     * Warms up the application before it reports to be ready. The searchers of all indexes are
+     * opened, which preloads configured index files, and the given queries are searched once,
+     * so that caches are filled and the search code is compiled by the JIT.
+     * @param queries Pairs of index and query, e.g. from the query log
+     */
+    public void warmUp(List<String[]> queries) {
+        LOGGER.info("Warming up with {} queries", queries.size());
+        long startMillis = System.currentTimeMillis();
+
+        ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
+        for (String index : indexes.keySet()) {
+            try {
+                IndexSearcher searcher = apiResourceManager.acquireSearcher(index);
+                try {
+                    // Join the metadata columns for facets now, so that no request has to wait for it
+                    IndexReader reader = searcher.getIndexReader();
+                    if (metadataGroups.containsKey(index) && !apiResourceManager.isDenormalized(reader)) {
+                        apiResourceManager.getMetadataColumns(index, reader);
+                    }
+                } finally {
+                    apiResourceManager.releaseSearcher(index, searcher);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not open searcher for index {}", index);
+            }
+        }
+
+        for (String[] indexAndQuery : queries) {
+            String index = indexAndQuery[0];
+            if (!indexes.containsKey(index)) {
+                continue;
+            }
+
+            try {
+                IndexSearcher searcher = apiResourceManager.acquireSearcher(index);
+                try {
+                    fetchResult(searcher.getIndexReader(), searcher, createQuery(indexAndQuery[1]), index, null, null,
+                        ApiUtils.DEFAULT_RESULTS_LIMIT, false, false, new LatencyBudget(ApiUtils.DEFAULT_LATENCY_BUDGET_MILLIS));
+                } finally {
+                    apiResourceManager.releaseSearcher(index, searcher);
+                }
+            } catch (ParseException | IOException e) {
+                LOGGER.warn("Could not warm up with query {}: {}", indexAndQuery[1], e.getMessage());
+            }
+        }
+
+        LOGGER.info("Warm-up finished after {} ms", System.currentTimeMillis() - startMillis);
+    }
+
+    public void setQueryLog(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+    /**
+     * Handles a particular HTTP POST request for the endpoint /search/batch.
+     * The body is a JSON array of queries with the same parameters as /search. Identical
+     * queries are only searched once and all queries are executed concurrently.
+     * @param ctx Context object required to handle HTTP request
+     * @param defaultIndex Name of the index to be used by default if no other index is specified in a query
+     * @throws Exception
+     */
+    public void handleBatchSearchRequest(Context ctx, String defaultIndex) throws Exception {
+        SearchQuery[] searchQueries;
+        try {
+            searchQueries = new Gson().fromJson(ctx.body(), SearchQuery[].class);
+        } catch (JsonParseException e) {
+            ctx.result("The body must be a JSON array of queries").status(400);
+            return;
+        }
+
+        if (searchQueries == null || searchQueries.length == 0) {
+            ctx.result("The batch must contain at least one query").status(400);
+            return;
+        }
+
+        if (searchQueries.length > ApiUtils.MAX_BATCH_SIZE) {
+            ctx.result("The batch must not contain more than " + ApiUtils.MAX_BATCH_SIZE + " queries").status(400);
+            return;
+        }
+        LOGGER.info("Batch size: {}", searchQueries.length);
+
+        // Submit every distinct query once. The budgets of all queries start with the request,
+        // so that queries waiting for a free thread do not get a fresh budget.
+        long arrivalNanos = System.nanoTime();
+        Map<SearchQuery, Future<JsonObject>> futures = new LinkedHashMap<>();
+        for (SearchQuery searchQuery : searchQueries) {
+            if (searchQuery == null) {
+                continue;
+            }
+            searchQuery.setDefaults(defaultIndex);
+            if (!futures.containsKey(searchQuery)) {
+                LatencyBudget budget = new LatencyBudget(searchQuery.getBudget(), arrivalNanos);
+                futures.put(searchQuery, batchExecutor.submit(() -> executeSearchQuery(searchQuery, budget)));
+            }
+        }
+        LOGGER.info("Distinct queries in batch: {}", futures.size());
+
+        // Collect the results in the order of the request
+        JsonArray batchArray = new JsonArray();
+        for (SearchQuery searchQuery : searchQueries) {
+            if (searchQuery == null) {
+                batchArray.add(createErrorObject("The query must be a JSON object", 400));
+                continue;
+            }
+            try {
+                batchArray.add(futures.get(searchQuery).get());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Batch query failed: {}", e.getCause());
+                batchArray.add(createErrorObject("The query could not be executed", 500));
+            }
+        }
+
+        JsonObject resultObject = new JsonObject();
+        resultObject.add("results", batchArray);
+
+        LOGGER.info("Returning batch results");
         ctx.contentType("application/json");
-        ctx.result(result.toString());
+        ctx.result(resultObject.toString());
+    }
+
+    /**
+     * Executes a single query of a batch.
+     * @param searchQuery Query with its parameters
+     * @param budget Latency budget of the query, starting with the batch request
+     * @return JSON object containing the search result or an error
+     * @throws Exception
+     */
+    private JsonObject executeSearchQuery(SearchQuery searchQuery, LatencyBudget budget) throws Exception {
+        if (!indexes.containsKey(searchQuery.getIndex())) {
+            return createErrorObject("The index could not be found", 404);
+        }
 
-        // Close the IndexReader
-        reader.close();
+        if (searchQuery.getLimit() <= 0) {
+            return createErrorObject("The limit must be a positive value", 400);
+        }
+
+        if (searchQuery.getQ() == null) {
+            return createErrorObject("The query must not be empty", 400);
+        }
+
+        Query query;
+        try {
+            query = createQuery(searchQuery.getQ());
+        } catch (ParseException e) {
+            return createErrorObject("The query could not be parsed", 400);
+        }
+
+        ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
+        IndexSearcher searcher = apiResourceManager.acquireSearcher(searchQuery.getIndex());
+        try {
+            return fetchResult(searcher.getIndexReader(), searcher, query, searchQuery.getIndex(),
+                searchQuery.getLang(), searchQuery.getRanking(), searchQuery.getLimit(), searchQuery.isFast(),
+                searchQuery.isFacets(), budget);
+        } finally {
+            apiResourceManager.releaseSearcher(searchQuery.getIndex(), searcher);
+        }
+    }
+
+    /**
+     * Creates the JSON object returned in place of a result for a failed query of a batch.
+     * @param message Error message
+     * @param status HTTP status the query would have returned on /search
+     * @return JSON object containing the error
+     */
+    private JsonObject createErrorObject(String message, int status) {
+        JsonObject errorObject = new JsonObject();
+        errorObject.addProperty("error", message);
+        errorObject.addProperty("status", status);
+        return errorObject;
     }
 
     /**
@@ -141,18 +447,6 @@ public class RequestHandler {
         return queryParser.parse(queryString);
     }
 
-    /**
-     * Creates an index searcher from the file path of the index.
-     * @param indexPath Path of the Lucene index
-     * @return IndexSearcher created from given path
-     * @throws IOException
-     */
-    private IndexSearcher createSearcher(String indexPath) throws IOException {
-        FSDirectory dir = FSDirectory.open(Paths.get(indexPath));
-        IndexReader reader = DirectoryReader.open(dir);
-        return new IndexSearcher(reader);
-    }
-
     /**
      * Fetches the result within an index for a given query.
      * @param reader IndexReader to read documents
@@ -162,37 +456,156 @@ public class RequestHandler {
      * @param lang Language filter param
      * @param ranking (Re)-Ranking param
      * @param numHitsLimit Limit param
+     * @param fastMode Fast mode param
+     * @param facets Facets param
+     * @param budget Latency budget of the request
      * @return JSON object containing the search result
      * @throws IOException
      */
-    private JsonObject fetchResult(IndexReader reader, IndexSearcher searcher, Query query, String index, String lang, String ranking, int numHitsLimit) throws IOException {
+    private JsonObject fetchResult(IndexReader reader, IndexSearcher searcher, Query query, String index, String lang, String ranking, int numHitsLimit, boolean fastMode, boolean facets, LatencyBudget budget) throws IOException {
         JsonObject resultObject = new JsonObject();
         List<JsonObject> fieldObjects = new ArrayList<JsonObject>();
         JsonArray sortedDocsArray = new JsonArray();
+
+        JsonObject summaryObject = streamResult(reader, searcher, query, index, lang, numHitsLimit, fastMode, facets, budget, fieldObjects::add);
+
+        // Optionally re-rank the search results
+        if (hasMetadata(reader, index)) {
+            LOGGER.info("Re-ranking result with key: {}", ranking);
+            sortedDocsArray = ApiUtils.reRankResults(fieldObjects, ranking);
+        } else {
+            fieldObjects.forEach(sortedDocsArray::add);
+        }
+
+        // Add array with crawled text to Json object
+        resultObject.add("results", sortedDocsArray);
+
+        // Add number of hits, flags and facets
+        summaryObject.entrySet().forEach(entry -> resultObject.add(entry.getKey(), entry.getValue()));
+
+        return resultObject;
+    }
+
+    /**
+     * Creates the values of a search result besides its hits.
+     * @param totalHits Total number of hits of the search
+     * @param facetsObject Facet counts of the search or null if no facets were requested
+     * @param budget Latency budget of the request
+     * @return JSON object containing the number of hits, flags and facets
+     */
+    private JsonObject createSummaryObject(TotalHits totalHits, JsonObject facetsObject, LatencyBudget budget) {
+        JsonObject summaryObject = new JsonObject();
+
+        // Add number of hits, which is a lower bound if counting was stopped early
+        summaryObject.addProperty("totalHits", totalHits.value);
+        summaryObject.addProperty("totalHitsExact", totalHits.relation == TotalHits.Relation.EQUAL_TO);
+
+        // Flag results that fell back to BM25 order because the latency budget ran out
+        summaryObject.addProperty("degraded", budget.isDegraded());
+
+        if (facetsObject != null) {
+            summaryObject.add("facets", facetsObject);
+        }
+
+        return summaryObject;
+    }
+
+    /**
+     * Creates the manager counting the hits of a query per language and per month of the WARC date.
+     * @param reader IndexReader of the searcher
+     * @param index Index param
+     * @return Manager of facet collectors or null if there is no metadata for the index
+     * @throws IOException
+     */
+    private CollectorManager<FacetCollector, JsonObject> createFacetsManager(IndexReader reader, String index) throws IOException {
+        ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
+        if (apiResourceManager.isDenormalized(reader)) {
+            // Denormalized indexes are counted from DocValues
+            return FacetCollector.createManager(null);
+        }
+
+        if (!metadataGroups.containsKey(index)) {
+            LOGGER.info("Could not find metadata for facets of index {}", index);
+            return null;
+        }
+
+        // Other indexes are counted from the joined metadata columns
+        return FacetCollector.createManager(apiResourceManager.getMetadataColumns(index, reader));
+    }
+
+    /**
+     * Searches an index for a given query and passes every hit to the consumer as soon as
+     * it has been enriched with metadata and has passed the language filter.
+     * @param reader IndexReader to read documents
+     * @param searcher IndexSearcher used for searching
+     * @param query Query param
+     * @param index Index param
+     * @param lang Language filter param
+     * @param numHitsLimit Limit param
+     * @param fastMode Fast mode param
+     * @param facets Facets param
+     * @param budget Latency budget of the request
+     * @param hitConsumer Consumer receiving each enriched hit
+     * @return JSON object containing the total number of hits of the first search iteration, flags and facets
+     * @throws IOException
+     */
+    private JsonObject streamResult(IndexReader reader, IndexSearcher searcher, Query query, String index, String lang, int numHitsLimit, boolean fastMode, boolean facets, LatencyBudget budget, Consumer<JsonObject> hitConsumer) throws IOException {
         TopDocs topDocs = new TopDocs(null, null);
+        TotalHits totalHits = new TotalHits(0, TotalHits.Relation.EQUAL_TO);
+        JsonObject facetsObject = null;
+        Query unfilteredQuery = query;
 
+        int numHitsConsumed = 0;
         boolean isFirstSearchIteration = true;
+        boolean isDenormalizedIndex = ApiResourceManager.getInstance().isDenormalized(reader);
         boolean metadataExistsForIndex = metadataGroups.containsKey(index);
+        if (isDenormalizedIndex) {
+            // Documents contain their metadata, so the language is filtered by the search itself
+            LOGGER.info("Using metadata stored in denormalized index {}", index);
+            query = createLanguageFilteredQuery(query, lang);
+        } else if (!metadataExistsForIndex) {
+            LOGGER.info("Could not find a parquet file with metadata for index {}", index);
+        }
 
         // Iteratively increase the number of hits until the hit limit has been reached
         // or no more documents could be found
-        while (fieldObjects.size() < numHitsLimit) {
+        StoredFields storedFields = reader.storedFields();
+        while (numHitsConsumed < numHitsLimit) {
 
             /************************************************************
              * MARKER-LUCENE-SEARCH                                     *
              * Here the query is searched in the Lucene index. For the  *
-             * first search iteration, .search() is used while for the  *
-             * subsequent search iterations .searchAfter() is used.     *
+             * first search iteration, hits (and facets) are collected  *
+             * from the start, while the subsequent search iterations   *
+             * collect the hits after the last hit of the previous one. *
              ************************************************************/
 
             // Perform the search
             if (isFirstSearchIteration) {
-                topDocs = searcher.search(query, numHitsLimit);
+                CollectorManager<? extends Collector, ? extends TopDocs> topDocsManager = createTopDocsManager(searcher, null, numHitsLimit, fastMode);
+                CollectorManager<FacetCollector, JsonObject> facetsManager = facets ? createFacetsManager(reader, index) : null;
+                if (facetsManager == null) {
+                    topDocs = searcher.search(query, topDocsManager);
+                } else if (query == unfilteredQuery) {
+                    // Count the facets in the same pass as the top hits
+                    Object[] results = searcher.search(query, new MultiCollectorManager(topDocsManager, facetsManager));
+                    topDocs = (TopDocs) results[0];
+                    facetsObject = (JsonObject) results[1];
+                } else {
+                    // The language filter of a denormalized index is part of the query, but the facets
+                    // have to count the hits in every language, so they are counted in a second pass
+                    topDocs = searcher.search(query, topDocsManager);
+                    facetsObject = searcher.search(unfilteredQuery, facetsManager);
+                }
+                if (facets && facetsObject == null) {
+                    facetsObject = new FacetCollector(null).getFacets();
+                }
+                totalHits = topDocs.totalHits;
                 isFirstSearchIteration = false;
             } else {
                 ScoreDoc lastScoreDoc = topDocs.scoreDocs[topDocs.scoreDocs.length-1];
                 LOGGER.info("Last ScoreDoc: {}", lastScoreDoc);
-                topDocs = searcher.searchAfter(lastScoreDoc, query, numHitsLimit - fieldObjects.size());
+                topDocs = searcher.search(query, createTopDocsManager(searcher, lastScoreDoc, numHitsLimit - numHitsConsumed, fastMode));
             }
 
             ScoreDoc[] hits = topDocs.scoreDocs;
@@ -203,108 +616,321 @@ public class RequestHandler {
                 break;
             }
 
-            // Collect the search results
-            List<Document> documents = new ArrayList<>();
+            // Load, convert and enrich one hit at a time so that the first hit
+            // reaches the consumer without waiting for the rest of the page
             for (ScoreDoc hit : hits) {
-                int docId = hit.doc;
-                Set<String> fieldsToLoad = new HashSet<>();
-                fieldsToLoad.add("content");
-                Document document = reader.document(docId);
-                documents.add(document);
+                Document document = storedFields.document(hit.doc);
+                JsonObject fieldObject = isDenormalizedIndex ? ApiUtils.createFieldObject(document) : toFieldObject(document);
+
+                // Add the score or, for hits in index order, the sort values,
+                // which are used to merge the hits of several shards
+                if (!Float.isNaN(hit.score)) {
+                    fieldObject.addProperty("score", hit.score);
+                }
+                if (hit instanceof FieldDoc) {
+                    fieldObject.add("sortValues", createSortValuesArray((FieldDoc) hit));
+                }
+
+                if (isDenormalizedIndex) {
+                    hitConsumer.accept(fieldObject);
+                    numHitsConsumed++;
+                    continue;
+                }
+
+                if (metadataExistsForIndex) {
+                    numHitsConsumed += enrichHit(fieldObject, query, index, lang, budget, hitConsumer);
+                } else {
+                    hitConsumer.accept(fieldObject);
+                    numHitsConsumed++;
+                }
             }
+        }
+
+        JsonObject summaryObject = createSummaryObject(totalHits, facetsObject, budget);
+
+        // Hits in index order have no score, so the sort order is returned to merge them instead
+        Sort indexSort = fastMode ? getIndexSort(reader) : null;
+        if (indexSort != null) {
+            summaryObject.add("indexSort", createIndexSortArray(indexSort));
+        }
+
+        return summaryObject;
+    }
+
+    /**
+     * Converts the sort values of a hit in index order to a JSON array.
+     * @param fieldDoc Hit returned by a search in index order
+     * @return JSON array with the value of each sort field or null if it is not numeric
+     */
+    private JsonArray createSortValuesArray(FieldDoc fieldDoc) {
+        JsonArray sortValuesArray = new JsonArray();
+        for (Object value : fieldDoc.fields) {
+            sortValuesArray.add(value instanceof Number ? new JsonPrimitive((Number) value) : JsonNull.INSTANCE);
+        }
+        return sortValuesArray;
+    }
 
-            // Prepare the result object
-            SearchResult result = new SearchResult(documents);
-
-            // Convert result to JSON object
-            LOGGER.info("Creating JSON object from search result");
-            ObjectWriter ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
-            String resp = ow.writeValueAsString(result);
-            JsonObject respObject = new Gson().fromJson(resp, JsonObject.class);
-            JsonArray docsArray = new JsonArray();
-            for (JsonElement element : respObject.getAsJsonArray("results")) {
-                JsonObject docObject = element.getAsJsonObject().get("fields").getAsJsonArray().get(0).getAsJsonObject();
-                docObject.add("url", docObject.get("charSequenceValue"));
-                docObject.remove("charSequenceValue");
-                docsArray.add(docObject);
+    /**
+     * Converts the sort order of an index to a JSON array.
+     * @param indexSort Sort order of the index
+     * @return JSON array with the name and direction of each sort field
+     */
+    private JsonArray createIndexSortArray(Sort indexSort) {
+        JsonArray indexSortArray = new JsonArray();
+        for (SortField sortField : indexSort.getSort()) {
+            JsonObject sortFieldObject = new JsonObject();
+            sortFieldObject.addProperty("field", sortField.getField());
+            sortFieldObject.addProperty("reverse", sortField.getReverse());
+            indexSortArray.add(sortFieldObject);
+        }
+        return indexSortArray;
+    }
+
+    /**
+     * Checks if the hits of an index contain metadata, either from a Parquet file or from the index itself.
+     * @param reader IndexReader of the searcher
+     * @param index Index param
+     * @return True if the hits can be re-ranked by word count, else false
+     */
+    private boolean hasMetadata(IndexReader reader, String index) {
+        return metadataGroups.containsKey(index) || ApiResourceManager.getInstance().isDenormalized(reader);
+    }
+
+    /**
+     * Restricts a query to documents of a denormalized index in the given language.
+     * @param query Query param
+     * @param lang Language filter param
+     * @return Query only matching documents in the given language or the unchanged query if no language is given
+     */
+    private Query createLanguageFilteredQuery(Query query, String lang) {
+
+        /************************************************************
+         * MARKER-LANGUAGE-FILTER                                   *
+         * For denormalized indexes the language filter is part of  *
+         * the query, so that documents in other languages are not  *
+         * collected at all.                                        *
+         ************************************************************/
+
+        if (lang == null) {
+            return query;
+        }
+
+        return new BooleanQuery.Builder()
+            .add(query, BooleanClause.Occur.MUST)
+            .add(new TermQuery(new Term(ApiUtils.FIELD_LANGUAGE, lang.toLowerCase())), BooleanClause.Occur.FILTER)
+            .build();
+    }
+
+    /**
+     * Creates the manager collecting the top documents of an index.
+     * By default, hits are counted exactly up to a threshold of 1000 hits, like IndexSearcher does.
+     * In fast mode, hits are only counted up to the requested number of hits, so that blocks of
+     * documents that can not make it into the top hits are skipped. If the index is sorted by a
+     * static quality signal (e.g. recency), fast mode returns the hits in index order and stops
+     * collecting as soon as enough hits have been found. Neither applies if facets are collected
+     * in the same pass, as they need every hit.
+     * @param searcher IndexSearcher used for searching
+     * @param after Last document of the previous search iteration or null for the first iteration
+     * @param numHits Number of hits to be returned
+     * @param fastMode Fast mode param
+     * @return Manager of collectors for the top documents
+     */
+    private CollectorManager<? extends Collector, ? extends TopDocs> createTopDocsManager(IndexSearcher searcher, ScoreDoc after, int numHits, boolean fastMode) {
+        int cappedNumHits = Math.max(1, Math.min(numHits, searcher.getIndexReader().maxDoc()));
+        if (!fastMode) {
+            return TopScoreDocCollector.createSharedManager(cappedNumHits, after, ApiUtils.DEFAULT_TOTAL_HITS_THRESHOLD);
+        }
+
+        Sort indexSort = getIndexSort(searcher.getIndexReader());
+        if (indexSort != null) {
+            return TopFieldCollector.createSharedManager(indexSort, cappedNumHits, (FieldDoc) after, cappedNumHits);
+        }
+
+        return TopScoreDocCollector.createSharedManager(cappedNumHits, after, cappedNumHits);
+    }
+
+    /**
+     * Returns the sort order of an index if all of its segments are sorted.
+     * @param reader IndexReader of the index
+     * @return Sort order of the index or null if the index is not sorted
+     */
+    private Sort getIndexSort(IndexReader reader) {
+        Sort indexSort = null;
+        for (LeafReaderContext leafReaderContext : reader.leaves()) {
+            Sort leafSort = leafReaderContext.reader().getMetaData().getSort();
+            if (leafSort == null) {
+                return null;
             }
+            indexSort = leafSort;
+        }
 
-            /************************************************************
-             * MARKER-METADATA-ENRICHMENT                               *
-             * Here metadata is added to each relevant document.        *
-             * Depending on the index, the enrichment is either done    *
-             * via URL or via UUID.                                     *
-             ************************************************************/
+        return indexSort;
+    }
 
-            // Parquet metadata inclusion
-            LOGGER.info("Adding metadata to search result");
-            if (metadataExistsForIndex) {
-                for (JsonElement element : docsArray) {
-                    JsonObject fieldObject = element.getAsJsonObject();
-
-                    // Get the links, to be queried from parquet
-                    String luceneValue = fieldObject.get("url").getAsString();
-
-                    // Check if the URL or the UUID is stored in the index
-                    if (luceneValue.startsWith("http")) {
-                        // Index contains documents identified by URLs
-                        List<SimpleGroup> simpleGroups = metadataGroups.get(index).subList(0,4);
-                        simpleGroups.sort((d1, d2) -> {
-                            if(!embeddings.containsKey(query.toString())) {
-                                embeddings.put(query.toString(), computeEmbedding(query.toString()));
-                            }
-                            float[] embeddingQ = embeddings.get(query.toString());
-                            String content1= d1.toString();
-                            String content2= d2.toString();
-
-                            if(!embeddings.containsKey(content1)) {
-                                embeddings.put(content1, computeEmbedding(content1));
-                            }
-
-                            if(!embeddings.containsKey(content2)) {
-                                embeddings.put(content2, computeEmbedding(content2));
-                            }
-
-                            return cosine_similarity(embeddingQ, embeddings.get(content1), dotProduct(embeddingQ, embeddings.get(content1))).compareTo(
-                                    cosine_similarity(embeddingQ, embeddings.get(content2), dotProduct(embeddingQ, embeddings.get(content2))
-                                    ));
-                        });
-
-                        for (SimpleGroup simpleGroup : simpleGroups) {
-
-                            String parquetUrl = ApiUtils.buildParquetUrl(simpleGroup);
-
-                            if (ApiUtils.isSameUrl(luceneValue, parquetUrl) && ApiUtils.isInLanguage(simpleGroup, lang)) {
-                                JsonObject updatedFieldObject = ApiUtils.updateFieldObject(fieldObject, simpleGroup);
-                                fieldObjects.add(updatedFieldObject);
-                            }
-                        }
-                    } else {
-                        // Index contains documents identified by UUIDs
-                        SimpleGroup simpleGroup = metadata.get(index).get(luceneValue);
-                        if (ApiUtils.isInLanguage(simpleGroup, lang)) {
-                            JsonObject updatedFieldObject = ApiUtils.updateFieldObject(fieldObject, simpleGroup, true);
-                            fieldObjects.add(updatedFieldObject);
-                        }
-                    }
-                }
+    /**
+     * Converts a document of the Lucene index to a JsonObject with its URL (or UUID).
+     * @param document Document stored in the Lucene index
+     * @return JsonObject created from the first field of the document
+     * @throws IOException
+     */
+    private JsonObject toFieldObject(Document document) throws IOException {
+        String resp = objectWriter.writeValueAsString(document);
+        JsonObject respObject = new Gson().fromJson(resp, JsonObject.class);
+        JsonObject docObject = respObject.getAsJsonArray("fields").get(0).getAsJsonObject();
+        docObject.add("url", docObject.get("charSequenceValue"));
+        docObject.remove("charSequenceValue");
+        return docObject;
+    }
 
-            } else {
-                LOGGER.info("Could not find a parquet file with metadata for index {}", index);
-                sortedDocsArray = docsArray;
+    /**
+     * Adds metadata to a single hit and passes it to the consumer if it is in the given language.
+     * @param fieldObject JsonObject of the hit as stored in the Lucene index
+     * @param query Query param
+     * @param index Index param
+     * @param lang Language filter param
+     * @param budget Latency budget of the request
+     * @param hitConsumer Consumer receiving each enriched hit
+     * @return Number of enriched objects passed to the consumer
+     */
+    private int enrichHit(JsonObject fieldObject, Query query, String index, String lang, LatencyBudget budget, Consumer<JsonObject> hitConsumer) {
+
+        /************************************************************
+         * MARKER-METADATA-ENRICHMENT                               *
+         * Here metadata is added to each relevant document.        *
+         * Depending on the index, the enrichment is either done    *
+         * via URL or via UUID.                                     *
+         ************************************************************/
+
+        int numHitsConsumed = 0;
+
+        // Get the links, to be queried from parquet
+        String luceneValue = fieldObject.get("url").getAsString();
+
+        // Check if the URL or the UUID is stored in the index
+        if (luceneValue.startsWith("http")) {
+            // Index contains documents identified by URLs
+            List<SimpleGroup> simpleGroups = new ArrayList<>(metadataGroups.get(index).subList(0,4));
+            sortBySimilarity(simpleGroups, query.toString(), budget);
+
+            for (SimpleGroup simpleGroup : simpleGroups) {
+
+                String parquetUrl = ApiUtils.buildParquetUrl(simpleGroup);
+
+                if (ApiUtils.isSameUrl(luceneValue, parquetUrl) && ApiUtils.isInLanguage(simpleGroup, lang)) {
+                    JsonObject updatedFieldObject = ApiUtils.updateFieldObject(fieldObject, simpleGroup);
+                    hitConsumer.accept(updatedFieldObject);
+                    numHitsConsumed++;
+                }
+            }
+        } else {
+            // Index contains documents identified by UUIDs
+            SimpleGroup simpleGroup = metadata.get(index).get(luceneValue);
+            if (ApiUtils.isInLanguage(simpleGroup, lang)) {
+                JsonObject updatedFieldObject = ApiUtils.updateFieldObject(fieldObject, simpleGroup, true);
+                hitConsumer.accept(updatedFieldObject);
+                numHitsConsumed++;
             }
         }
 
-        // Optionally re-rank the search results
-        if (metadataExistsForIndex) {
-            LOGGER.info("Re-ranking result with key: {}", ranking);
-            sortedDocsArray = ApiUtils.reRankResults(fieldObjects, ranking);
+        return numHitsConsumed;
+    }
+
+    /**
+     * Sorts records of the Parquet file by the cosine similarity of their embeddings to the query.
+     * If an embedding can not be computed within the latency budget, the records keep their
+     * order and the result is marked as degraded.
+     * @param simpleGroups Records in Parquet file
+     * @param queryString Query as string
+     * @param budget Latency budget of the request
+     */
+    private void sortBySimilarity(List<SimpleGroup> simpleGroups, String queryString, LatencyBudget budget) {
+        List<String> contents = new ArrayList<>();
+        contents.add(queryString);
+        for (SimpleGroup simpleGroup : simpleGroups) {
+            contents.add(simpleGroup.toString());
         }
 
-        // Add array with crawled text to Json object
-        resultObject.add("results", sortedDocsArray);
+        List<float[]> contentEmbeddings = getEmbeddings(contents, budget);
+        if (contentEmbeddings == null) {
+            return;
+        }
 
-        return resultObject;
+        float[] embeddingQ = contentEmbeddings.get(0);
+        Map<SimpleGroup, Double> similarities = new HashMap<>();
+        for (int i = 0; i < simpleGroups.size(); i++) {
+            float[] embeddingD = contentEmbeddings.get(i + 1);
+            similarities.put(simpleGroups.get(i), cosine_similarity(embeddingQ, embeddingD, dotProduct(embeddingQ, embeddingD)));
+        }
+
+        simpleGroups.sort(Comparator.comparing(similarities::get));
+    }
+
+    /**
+     * Returns the embeddings of several texts. Each text is only embedded once and then shared
+     * by all requests: a request claims the texts that are not embedded yet and computes them
+     * in one batch, while concurrent requests needing the same texts wait for its result.
+     * @param contents Texts to be embedded
+     * @param budget Latency budget of the request
+     * @return Embedding of each text or null if they could not be computed within the budget
+     */
+    private List<float[]> getEmbeddings(List<String> contents, LatencyBudget budget) {
+        Map<String, CompletableFuture<float[]>> claimedEmbeddings = new LinkedHashMap<>();
+        List<CompletableFuture<float[]>> contentEmbeddingFutures = new ArrayList<>();
+        for (String content : contents) {
+            contentEmbeddingFutures.add(embeddings.computeIfAbsent(content, key -> {
+                CompletableFuture<float[]> future = new CompletableFuture<>();
+                claimedEmbeddings.put(key, future);
+                return future;
+            }));
+        }
+
+        if (!claimedEmbeddings.isEmpty()) {
+            computeClaimedEmbeddings(claimedEmbeddings, budget);
+        }
+
+        List<float[]> contentEmbeddings = new ArrayList<>();
+        try {
+            for (CompletableFuture<float[]> future : contentEmbeddingFutures) {
+                contentEmbeddings.add(future.get(budget.remainingMillis(), TimeUnit.MILLISECONDS));
+            }
+        } catch (TimeoutException | ExecutionException e) {
+            LOGGER.warn("Falling back to BM25 order: {}", e.getMessage());
+            budget.degrade();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            budget.degrade();
+            return null;
+        }
+
+        return contentEmbeddings;
+    }
+
+    /**
+     * Computes the embeddings of the texts claimed by a request in one batch. If they can not be
+     * computed, the claims are removed, so that a later request computes them again.
+     * @param claimedEmbeddings Futures of the claimed texts, which are completed by this method
+     * @param budget Latency budget of the request
+     */
+    private void computeClaimedEmbeddings(Map<String, CompletableFuture<float[]>> claimedEmbeddings, LatencyBudget budget) {
+        List<String> claimedContents = new ArrayList<>(claimedEmbeddings.keySet());
+        try {
+            // Skip the call if too little of the budget is left for it to succeed, which is not
+            // a failure of the embedding service and must not count towards its circuit breaker
+            if (budget.isExhausted() || budget.remainingMillis() < ApiUtils.MIN_EMBEDDING_BUDGET_MILLIS) {
+                throw new IOException("Too little of the latency budget is left to compute embeddings");
+            }
+
+            List<float[]> claimedContentEmbeddings = embeddingClient.computeEmbeddings(claimedContents, budget.remainingMillis());
+            for (int i = 0; i < claimedContents.size(); i++) {
+                claimedEmbeddings.get(claimedContents.get(i)).complete(claimedContentEmbeddings.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            claimedEmbeddings.forEach((content, future) -> {
+                embeddings.remove(content, future);
+                future.completeExceptionally(e);
+            });
+        }
     }
 
     public Double cosine_similarity(float[] input1_vector, float[] input2_vector, double dot_product)  {
@@ -317,6 +943,10 @@ public class RequestHandler {
             norm_b += Math.pow(input2_vector[i], 2);
         }
 
+        if (norm_a == 0.0 || norm_b == 0.0) {
+            return 0.0;
+        }
+
         return (dot_product / (Math.sqrt(norm_a) * Math.sqrt(norm_b)));
     }
 
@@ -327,28 +957,4 @@ public class RequestHandler {
 
         return dotProduct;
     }
-
-    public float[] computeEmbedding(String content) {
-        Map<String, String> map = new HashMap<>();
-        map.put("sentence", content);
-        Gson gson = new Gson();
-        RequestBody body = RequestBody.create(gson.toJson(map), JSON);
-        String url = "http://127.0.0.1:5000/embed";
-        Request request = new Request.Builder()
-                .url(url)
-                .post(body)
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            EmbeddingResponse embeddingResponse = gson.fromJson(response.body().string(), EmbeddingResponse.class);
-            return embeddingResponse.embeddings[0];
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return new float[]{0f};
-    }
-
-    private static class EmbeddingResponse {
-        float[][] embeddings;
-    }
 }
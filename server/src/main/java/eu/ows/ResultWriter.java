@@ -0,0 +1,106 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Writes search results with a Jackson generator directly to the response, either as JSON or
+ * as one of the binary formats CBOR and Smile. The binary formats encode numbers (e.g. scores)
+ * without converting them to text and are smaller, for clients that can decode them.
+ */
+public class ResultWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory CBOR_FACTORY = new CBORFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory SMILE_FACTORY = new SmileFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final JsonFactory factory;
+
+    /**
+     * Creates a writer for the given format.
+     * @param format Format param, i.e. json, cbor or smile
+     */
+    public ResultWriter(String format) {
+        if (ApiUtils.FORMAT_CBOR.equals(format)) {
+            factory = CBOR_FACTORY;
+        } else if (ApiUtils.FORMAT_SMILE.equals(format)) {
+            factory = SMILE_FACTORY;
+        } else {
+            factory = JSON_FACTORY;
+        }
+    }
+
+    /**
+     * Writes a search result to the output stream, which is left open.
+     * @param resultObject JsonElement containing the search result
+     * @param outputStream Output stream of the response
+     * @throws IOException
+     */
+    public void write(JsonElement resultObject, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(outputStream)) {
+            writeElement(generator, resultObject);
+        }
+    }
+
+    private void writeElement(JsonGenerator generator, JsonElement element) throws IOException {
+        if (element.isJsonObject()) {
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeElement(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (element.isJsonArray()) {
+            generator.writeStartArray();
+            for (JsonElement child : element.getAsJsonArray()) {
+                writeElement(generator, child);
+            }
+            generator.writeEndArray();
+        } else if (element.isJsonNull()) {
+            generator.writeNull();
+        } else {
+            writePrimitive(generator, element.getAsJsonPrimitive());
+        }
+    }
+
+    private void writePrimitive(JsonGenerator generator, JsonPrimitive primitive) throws IOException {
+        if (primitive.isBoolean()) {
+            generator.writeBoolean(primitive.getAsBoolean());
+        } else if (!primitive.isNumber()) {
+            generator.writeString(primitive.getAsString());
+        } else {
+            writeNumber(generator, primitive);
+        }
+    }
+
+    /**
+     * Writes a number with its own type, so that binary formats do not encode it as text.
+     * Numbers parsed by Gson have no type yet and are written as integer if they have no fraction.
+     */
+    private void writeNumber(JsonGenerator generator, JsonPrimitive primitive) throws IOException {
+        Number number = primitive.getAsNumber();
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            generator.writeNumber(number.longValue());
+        } else if (number instanceof Float) {
+            generator.writeNumber(number.floatValue());
+        } else if (number instanceof Double) {
+            generator.writeNumber(number.doubleValue());
+        } else {
+            BigDecimal decimal = primitive.getAsBigDecimal();
+            try {
+                generator.writeNumber(decimal.longValueExact());
+            } catch (ArithmeticException e) {
+                generator.writeNumber(decimal.doubleValue());
+            }
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package eu.ows;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import io.javalin.Javalin;
 
 import org.apache.commons.cli.CommandLine;
@@ -24,6 +31,15 @@ public class SearchApi {
      * @param args[1] Port for the server.
      * @param args[2] Path of directory containing the Lucene indexes (optional).
      * @param args[3] Path of directory containing the Parquet files (optional).
+     * @param args[4] Flag to skip loading the Parquet files (optional).
+     * @param args[5] Base URLs of shard nodes for coordinator mode (optional).
+     * @param args[6] Timeout for requests to shard nodes (optional).
+     * @param args[7] URL of the embedding service (optional).
+     * @param args[8] Path of directory containing an ONNX embedding model (optional).
+     * @param args[9] Path of properties file configuring the index directories (optional).
+     * @param args[10] Path of query log file (optional).
+     * @param args[11] Number of queries replayed on start (optional).
+     * @param args[12] Interval in minutes after which the suggesters are rebuilt (optional).
      */
     public static void main(String[] args) {
         Options options = new Options();
@@ -48,6 +64,50 @@ public class SearchApi {
             .hasArg()
             .desc("Path of directory containing the Parquet file(s)")
             .build());
+        options.addOption(Option.builder("n")
+            .longOpt("no-parquet")
+            .desc("Do not load Parquet files, if all indexes are denormalized (see IndexBuilder)")
+            .build());
+        options.addOption(Option.builder("s")
+            .argName("urls").longOpt("shards")
+            .hasArg()
+            .desc("Comma-separated base URLs of shard nodes, runs the application as coordinator")
+            .build());
+        options.addOption(Option.builder("t")
+            .argName("millis").longOpt("shard-timeout")
+            .hasArg()
+            .desc("Timeout in milliseconds for requests to shard nodes (default: " + ApiUtils.DEFAULT_SHARD_TIMEOUT_MILLIS + ")")
+            .build());
+        options.addOption(Option.builder("e")
+            .argName("url").longOpt("embedding-url")
+            .hasArg()
+            .desc("URL of the embedding service (default: " + HttpEmbeddingClient.DEFAULT_EMBEDDING_URL + ")")
+            .build());
+        options.addOption(Option.builder("o")
+            .argName("dirPath").longOpt("embedding-model-path")
+            .hasArg()
+            .desc("Path of directory containing an ONNX embedding model, used instead of the embedding service")
+            .build());
+        options.addOption(Option.builder("c")
+            .argName("filePath").longOpt("index-config")
+            .hasArg()
+            .desc("Path of properties file configuring the directory and preloading of each index")
+            .build());
+        options.addOption(Option.builder("q")
+            .argName("filePath").longOpt("query-log")
+            .hasArg()
+            .desc("Path of file to which queries are appended and from which they are replayed on start")
+            .build());
+        options.addOption(Option.builder("w")
+            .argName("number").longOpt("warmup-queries")
+            .hasArg()
+            .desc("Number of recent queries replayed on start (default: " + ApiUtils.DEFAULT_WARMUP_QUERIES + ")")
+            .build());
+        options.addOption(Option.builder("r")
+            .argName("minutes").longOpt("suggest-rebuild-interval")
+            .hasArg()
+            .desc("Interval in minutes after which the suggesters are rebuilt (default: " + ApiUtils.DEFAULT_SUGGEST_REBUILD_MINUTES + ")")
+            .build());
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = null;
@@ -64,6 +124,15 @@ public class SearchApi {
         int port = Integer.parseInt(cmd.getOptionValue("p"));
         ApiUtils.setIndexDirPath(cmd.getOptionValue("l", ApiUtils.DEFAULT_INDEX_DIR_PATH));
         ApiUtils.setParquetDirPath(cmd.getOptionValue("m", ApiUtils.DEFAULT_PARQUET_DIR_PATH));
+        ApiUtils.setParquetEnabled(!cmd.hasOption("n"));
+        if (cmd.hasOption("c")) {
+            try {
+                ApiUtils.setIndexDirectoryConfig(new IndexDirectoryConfig(cmd.getOptionValue("c")));
+            } catch (IOException e) {
+                LOGGER.error("Could not read index config: {}", e.getMessage());
+                System.exit(1);
+            }
+        }
 
         Javalin app = Javalin.create(config -> {
             config.plugins.enableCors(cors -> {
@@ -76,12 +145,80 @@ public class SearchApi {
         app.start(port);
         LOGGER.info("Running app on port {}", port);
 
-        RequestHandler requestHandler = new RequestHandler();
+        // Load balancers poll this endpoint until resources are loaded and warmed up
+        AtomicBoolean ready = new AtomicBoolean(false);
+        app.get("/ready", ctx -> {
+            if (ready.get()) {
+                ctx.result("Ready");
+            } else {
+                ctx.result("Starting").status(503);
+            }
+        });
+
+        if (cmd.hasOption("s")) {
+            // Coordinator mode: indexes are served by the shard nodes
+            List<String> shardUrls = Arrays.asList(cmd.getOptionValue("s").split(","));
+            long shardTimeoutMillis = Long.parseLong(cmd.getOptionValue("t", String.valueOf(ApiUtils.DEFAULT_SHARD_TIMEOUT_MILLIS)));
+            LOGGER.info("Running as coordinator of shards {}", shardUrls);
+
+            ShardCoordinator shardCoordinator;
+            try {
+                shardCoordinator = new ShardCoordinator(shardUrls, shardTimeoutMillis);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid shard URL: {}", e.getMessage());
+                System.exit(1);
+                return;
+            }
+
+            app.get("/search", ctx -> shardCoordinator.handleSearchRequest(ctx));
+            ready.set(true);
+        } else {
+            EmbeddingClient embeddingClient = createEmbeddingClient(cmd);
+            RequestHandler requestHandler = new RequestHandler(embeddingClient);
+
+            List<String[]> warmUpQueries = new ArrayList<>();
+            QueryLog queryLog = null;
+            if (cmd.hasOption("q")) {
+                queryLog = new QueryLog(Paths.get(cmd.getOptionValue("q")));
+                int numWarmUpQueries = Integer.parseInt(cmd.getOptionValue("w", String.valueOf(ApiUtils.DEFAULT_WARMUP_QUERIES)));
+                warmUpQueries = queryLog.readRecent(numWarmUpQueries);
+                requestHandler.setQueryLog(queryLog);
+            }
+            requestHandler.warmUp(warmUpQueries);
 
-        app.get("/search", ctx -> requestHandler.handleSearchRequest(ctx, defaultIndex));
+            app.get("/search", ctx -> requestHandler.handleSearchRequest(ctx, defaultIndex));
+            app.post("/search/batch", ctx -> requestHandler.handleBatchSearchRequest(ctx, defaultIndex));
+
+            // Suggesters are built in the background and do not delay readiness
+            long suggestRebuildMinutes = Long.parseLong(cmd.getOptionValue("r", String.valueOf(ApiUtils.DEFAULT_SUGGEST_REBUILD_MINUTES)));
+            SuggestHandler suggestHandler = new SuggestHandler(queryLog, suggestRebuildMinutes);
+            app.get("/suggest", ctx -> suggestHandler.handleSuggestRequest(ctx, defaultIndex));
+            ready.set(true);
+            LOGGER.info("App is ready");
+        }
         app.exception(Exception.class, (e, ctx) -> {
             LOGGER.warn("App exception: {}", e);
             ctx.status(500);
         });
     }
+
+    /**
+     * Creates the client computing embeddings, either in the JVM from a local ONNX model
+     * or by calling the embedding service.
+     * @param cmd Parsed arguments
+     * @return Client computing embeddings
+     */
+    private static EmbeddingClient createEmbeddingClient(CommandLine cmd) {
+        if (cmd.hasOption("o")) {
+            try {
+                int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+                return new OnnxEmbeddingClient(Paths.get(cmd.getOptionValue("o")), numThreads);
+            } catch (IOException e) {
+                LOGGER.error("Could not load embedding model: {}", e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        return new HttpEmbeddingClient(cmd.getOptionValue("e", HttpEmbeddingClient.DEFAULT_EMBEDDING_URL));
+    }
 }
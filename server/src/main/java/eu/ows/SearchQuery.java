@@ -0,0 +1,92 @@
+package eu.ows;
+
+import java.util.Objects;
+
+/**
+ * Stores the parameters of a single query within a batch search request.
+ * Two queries are equal if all of their parameters are equal.
+ */
+public class SearchQuery {
+    private String q;
+    private String index;
+    private String lang;
+    private String ranking;
+    private Integer limit;
+    private Boolean fast;
+    private Boolean facets;
+    private Long budget;
+
+    /**
+     * Sets the parameters that were not specified in the request to their default values.
+     * @param defaultIndex Name of the index to be used by default
+     */
+    public void setDefaults(String defaultIndex) {
+        if (index == null) {
+            index = defaultIndex;
+        }
+        if (limit == null) {
+            limit = ApiUtils.DEFAULT_RESULTS_LIMIT;
+        }
+        if (fast == null) {
+            fast = false;
+        }
+        if (facets == null) {
+            facets = false;
+        }
+        if (budget == null) {
+            budget = ApiUtils.DEFAULT_LATENCY_BUDGET_MILLIS;
+        }
+    }
+
+    public String getQ() {
+        return q;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getLang() {
+        return lang;
+    }
+
+    public String getRanking() {
+        return ranking;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isFast() {
+        return fast;
+    }
+
+    public boolean isFacets() {
+        return facets;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SearchQuery)) {
+            return false;
+        }
+        SearchQuery other = (SearchQuery) o;
+        return Objects.equals(q, other.q) && Objects.equals(index, other.index) && Objects.equals(lang, other.lang)
+            && Objects.equals(ranking, other.ranking) && Objects.equals(limit, other.limit)
+            && Objects.equals(fast, other.fast) && Objects.equals(facets, other.facets)
+            && Objects.equals(budget, other.budget);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(q, index, lang, ranking, limit, fast, facets, budget);
+    }
+}
@@ -0,0 +1,286 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import io.javalin.http.Context;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Handles GET requests in coordinator mode, where one logical index is split across
+ * several shard nodes. Each shard node is a SearchApi serving a part of the index.
+ * Requests are sent to all shards in parallel and their top hits are merged by score,
+ * or by the sort values of the index if the shards returned their hits in index order.
+ */
+public class ShardCoordinator {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private final Map<String, HttpUrl> shardUrls = new LinkedHashMap<>();
+    private final OkHttpClient client;
+
+    /**
+     * Creates a coordinator for the given shard nodes.
+     * @param shardUrls Base URLs of the shard nodes, e.g. http://localhost:8001
+     * @param shardTimeoutMillis Time in milliseconds after which a shard is considered slow
+     * @throws IllegalArgumentException If a base URL is not a valid HTTP or HTTPS URL
+     */
+    public ShardCoordinator(List<String> shardUrls, long shardTimeoutMillis) {
+        for (String shardUrl : shardUrls) {
+            this.shardUrls.put(shardUrl, HttpUrl.get(shardUrl));
+        }
+        this.client = new OkHttpClient.Builder()
+            .callTimeout(shardTimeoutMillis, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * Handles a particular HTTP GET request for the endpoint /search by sending it to all shards.
+     * Shards that fail or exceed the timeout are left out and the result is marked as partial.
+     * @param ctx Context object required to handle HTTP request
+     * @throws Exception
+     */
+    public void handleSearchRequest(Context ctx) throws Exception {
+        String ranking = ctx.queryParam("ranking");
+        int numHitsLimit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(ApiUtils.DEFAULT_RESULTS_LIMIT);
+
+        if (numHitsLimit <= 0) {
+            ctx.result("The limit must be a positive value").status(400);
+            return;
+        }
+
+        // Send the request to all shards in parallel
+        List<CompletableFuture<ShardResponse>> futures = new ArrayList<>();
+        for (String shardUrl : shardUrls.keySet()) {
+            futures.add(searchShard(shardUrl, ctx.queryParamMap()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        List<JsonObject> hits = new ArrayList<>();
+        JsonArray failedShardsArray = new JsonArray();
+        JsonObject facetsObject = null;
+        long totalHits = 0;
+        boolean totalHitsExact = true;
+        boolean degraded = false;
+        boolean isFirstResult = true;
+        JsonArray indexSortArray = null;
+        ShardResponse firstFailedResponse = null;
+
+        for (CompletableFuture<ShardResponse> future : futures) {
+            ShardResponse shardResponse = future.join();
+            if (shardResponse.result == null) {
+                failedShardsArray.add(shardResponse.shardUrl);
+                if (firstFailedResponse == null) {
+                    firstFailedResponse = shardResponse;
+                }
+                continue;
+            }
+
+            JsonObject result = shardResponse.result;
+
+            // Hits can only be merged by their sort values if all shards returned them in the same index order
+            JsonArray shardIndexSortArray = result.has("indexSort") ? result.getAsJsonArray("indexSort") : null;
+            if (isFirstResult) {
+                indexSortArray = shardIndexSortArray;
+                isFirstResult = false;
+            } else if (!Objects.equals(indexSortArray, shardIndexSortArray)) {
+                if (indexSortArray != null) {
+                    LOGGER.warn("Shards are sorted differently, merging hits by score");
+                }
+                indexSortArray = null;
+            }
+
+            for (JsonElement element : result.getAsJsonArray("results")) {
+                hits.add(element.getAsJsonObject());
+            }
+            if (result.has("totalHits")) {
+                totalHits += result.get("totalHits").getAsLong();
+                totalHitsExact &= result.get("totalHitsExact").getAsBoolean();
+            }
+            if (result.has("degraded")) {
+                degraded |= result.get("degraded").getAsBoolean();
+            }
+            if (result.has("facets")) {
+                facetsObject = mergeFacets(facetsObject, result.getAsJsonObject("facets"));
+            }
+        }
+
+        if (failedShardsArray.size() == shardUrls.size()) {
+            // No shard returned a result, so forward the error of the first shard
+            LOGGER.warn("All shards failed");
+            ctx.result(firstFailedResponse.message).status(firstFailedResponse.status);
+            return;
+        }
+
+        /************************************************************
+         * MARKER-SHARD-MERGE                                       *
+         * Here the hits of all shards are merged. By default, the  *
+         * hits are sorted by their BM25 score, which is computed   *
+         * with the statistics of each shard. Hits in index order   *
+         * (fast mode on sorted indexes) are sorted like the index. *
+         ************************************************************/
+
+        hits.sort(createMergeComparator(indexSortArray));
+        List<JsonObject> topHits = new ArrayList<>(hits.subList(0, Math.min(numHitsLimit, hits.size())));
+
+        JsonObject resultObject = new JsonObject();
+        resultObject.add("results", ApiUtils.reRankResults(topHits, ranking));
+        resultObject.addProperty("totalHits", totalHits);
+        resultObject.addProperty("totalHitsExact", totalHitsExact && failedShardsArray.size() == 0);
+        resultObject.addProperty("degraded", degraded);
+        if (facetsObject != null) {
+            resultObject.add("facets", facetsObject);
+        }
+        resultObject.addProperty("partial", failedShardsArray.size() > 0);
+        resultObject.add("failedShards", failedShardsArray);
+
+        LOGGER.info("Returning merged results of {} shards", shardUrls.size() - failedShardsArray.size());
+        ctx.contentType("application/json");
+        ctx.result(resultObject.toString());
+    }
+
+    /**
+     * Creates the comparator ordering the hits of all shards.
+     * @param indexSortArray Sort order of the index shared by all shards or null if the hits are ordered by score
+     * @return Comparator ordering the best hit first
+     */
+    private Comparator<JsonObject> createMergeComparator(JsonArray indexSortArray) {
+        if (indexSortArray == null) {
+            return Comparator.comparingDouble((JsonObject hit) -> hit.has("score") ? hit.get("score").getAsDouble() : Double.NEGATIVE_INFINITY).reversed();
+        }
+
+        return (hit1, hit2) -> {
+            for (int i = 0; i < indexSortArray.size(); i++) {
+                int comparison = compareSortValues(getSortValue(hit1, i), getSortValue(hit2, i));
+                if (indexSortArray.get(i).getAsJsonObject().get("reverse").getAsBoolean()) {
+                    comparison = -comparison;
+                }
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static JsonElement getSortValue(JsonObject hit, int i) {
+        return hit.has("sortValues") ? hit.getAsJsonArray("sortValues").get(i) : JsonNull.INSTANCE;
+    }
+
+    /**
+     * Compares two numeric sort values, where a missing value is the smallest value.
+     */
+    private static int compareSortValues(JsonElement value1, JsonElement value2) {
+        if (value1.isJsonNull() || value2.isJsonNull()) {
+            return Boolean.compare(!value1.isJsonNull(), !value2.isJsonNull());
+        }
+        return value1.getAsBigDecimal().compareTo(value2.getAsBigDecimal());
+    }
+
+    /**
+     * Sends a search request to a single shard.
+     * @param shardUrl Base URL of the shard node
+     * @param queryParams Query params of the original request
+     * @return Future completed with the response of the shard, which is never completed exceptionally
+     */
+    private CompletableFuture<ShardResponse> searchShard(String shardUrl, Map<String, List<String>> queryParams) {
+        HttpUrl.Builder urlBuilder = shardUrls.get(shardUrl).newBuilder().addPathSegment("search");
+        queryParams.forEach((name, values) -> {
+            // Shards always return JSON, as streamed hits can not be merged
+            if (!name.equals("format")) {
+                values.forEach(value -> urlBuilder.addQueryParameter(name, value));
+            }
+        });
+
+        CompletableFuture<ShardResponse> future = new CompletableFuture<>();
+        Request request = new Request.Builder().url(urlBuilder.build()).build();
+        client.newCall(request).enqueue(new Callback() {
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    String body = r.body().string();
+                    if (r.isSuccessful()) {
+                        future.complete(new ShardResponse(shardUrl, ApiUtils.convertToJSON(body), r.code(), null));
+                    } else {
+                        LOGGER.warn("Shard {} returned status {}", shardUrl, r.code());
+                        future.complete(new ShardResponse(shardUrl, null, r.code(), body));
+                    }
+                } catch (IOException | JsonParseException e) {
+                    onFailure(call, new IOException(e));
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                LOGGER.warn("Shard {} failed: {}", shardUrl, e.getMessage());
+                future.complete(new ShardResponse(shardUrl, null, 504, "No shard returned a result in time"));
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Adds the facet counts of a shard to the facet counts of the previous shards.
+     * @param facetsObject Facet counts of the previous shards or null
+     * @param shardFacetsObject Facet counts of a shard
+     * @return Summed facet counts
+     */
+    private JsonObject mergeFacets(JsonObject facetsObject, JsonObject shardFacetsObject) {
+        if (facetsObject == null) {
+            return shardFacetsObject.deepCopy();
+        }
+
+        for (String facet : shardFacetsObject.keySet()) {
+            if (!facetsObject.has(facet)) {
+                facetsObject.add(facet, new JsonObject());
+            }
+            JsonObject countsObject = facetsObject.getAsJsonObject(facet);
+            for (Map.Entry<String, JsonElement> entry : shardFacetsObject.getAsJsonObject(facet).entrySet()) {
+                int count = countsObject.has(entry.getKey()) ? countsObject.get(entry.getKey()).getAsInt() : 0;
+                countsObject.addProperty(entry.getKey(), count + entry.getValue().getAsInt());
+            }
+        }
+
+        return facetsObject;
+    }
+
+    /**
+     * Stores the response of a single shard.
+     */
+    private static class ShardResponse {
+        String shardUrl;
+        JsonObject result;
+        int status;
+        String message;
+
+        ShardResponse(String shardUrl, JsonObject result, int status, String message) {
+            this.shardUrl = shardUrl;
+            this.result = result;
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
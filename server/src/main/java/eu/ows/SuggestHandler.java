@@ -0,0 +1,303 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.javalin.http.Context;
+
+/**
+ * Handles GET requests for query autocompletion. Suggestions are served from an in-memory
+ * weighted FST per index, built from the document titles and the frequent queries of the
+ * query log. Logged queries are only suggested once they have been searched several times
+ * and if they can be parsed. Each suggestion is weighted by the number of documents with
+ * that title plus the number of times it was queried. Lookups are case-insensitive, while each suggestion
+ * is returned in its most frequent original spelling. The FSTs are rebuilt periodically in
+ * the background and swapped atomically, so that lookups never wait for a build.
+ */
+public class SuggestHandler {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SuggestHandler.class);
+
+    public static final int DEFAULT_SUGGESTIONS_LIMIT = 10;
+    private static final int MAX_SUGGESTION_LENGTH = 200;
+    private static final int NUM_LOGGED_QUERIES = 10000;
+    private static final int MIN_LOGGED_QUERY_COUNT = 3;
+
+    private final Map<String, Suggester> suggesters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService buildExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final QueryLog queryLog;
+
+    /**
+     * Creates the handler and schedules the builds of the suggesters of all indexes.
+     * @param queryLog Query log with frequent queries or null
+     * @param rebuildMinutes Interval in minutes after which the suggesters are rebuilt
+     */
+    public SuggestHandler(QueryLog queryLog, long rebuildMinutes) {
+        this.queryLog = queryLog;
+        buildExecutor.scheduleWithFixedDelay(this::buildLookups, 0, rebuildMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Handles a particular HTTP GET request for the endpoint /suggest.
+     * @param ctx Context object required to handle HTTP request
+     * @param defaultIndex Name of the index to be used by default if no other index is specified in the request
+     * @throws Exception
+     */
+    public void handleSuggestRequest(Context ctx, String defaultIndex) throws Exception {
+        String prefix = ctx.queryParam("q");
+        String index = ctx.queryParamAsClass("index", String.class).getOrDefault(defaultIndex);
+        int numSuggestionsLimit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_SUGGESTIONS_LIMIT);
+
+        if (prefix == null || prefix.trim().isEmpty()) {
+            ctx.result("The prefix must not be empty").status(400);
+            return;
+        }
+
+        if (numSuggestionsLimit <= 0) {
+            ctx.result("The limit must be a positive value").status(400);
+            return;
+        }
+
+        if (!ApiResourceManager.getInstance().getIndexes().containsKey(index)) {
+            ctx.result("The index could not be found").status(404);
+            return;
+        }
+
+        JsonArray suggestionsArray = new JsonArray();
+        Suggester suggester = suggesters.get(index);
+        if (suggester != null) {
+            for (Lookup.LookupResult lookupResult : suggester.lookup.lookup(normalize(prefix), false, numSuggestionsLimit)) {
+                String key = lookupResult.key.toString();
+                JsonObject suggestionObject = new JsonObject();
+                suggestionObject.addProperty("text", suggester.displayTexts.getOrDefault(key, key));
+                suggestionObject.addProperty("weight", lookupResult.value);
+                suggestionsArray.add(suggestionObject);
+            }
+        }
+
+        JsonObject resultObject = new JsonObject();
+        resultObject.add("suggestions", suggestionsArray);
+
+        ctx.contentType("application/json");
+        ctx.result(resultObject.toString());
+    }
+
+    /**
+     * Builds the suggesters of all indexes and replaces the previous ones.
+     */
+    private void buildLookups() {
+        for (String index : ApiResourceManager.getInstance().getIndexes().keySet()) {
+            try {
+                long startMillis = System.currentTimeMillis();
+                Map<String, Map<String, Long>> spellings = collectSpellings(index);
+
+                // The FST is keyed by the normalized suggestion, weighted by all of its spellings
+                Map<String, Long> weights = new HashMap<>();
+                Map<String, String> displayTexts = new HashMap<>();
+                Comparator<Map.Entry<String, Long>> byCount = Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey());
+                spellings.forEach((key, counts) -> {
+                    weights.put(key, counts.values().stream().mapToLong(Long::longValue).sum());
+                    displayTexts.put(key, Collections.max(counts.entrySet(), byCount).getKey());
+                });
+
+                WFSTCompletionLookup lookup = new WFSTCompletionLookup(new ByteBuffersDirectory(), "suggest");
+                lookup.build(new WeightsInputIterator(weights));
+                suggesters.put(index, new Suggester(lookup, displayTexts));
+                LOGGER.info("Built suggester for index {} with {} entries in {} ms", index, lookup.getCount(), System.currentTimeMillis() - startMillis);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not build suggester for index {}: {}", index, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Counts how often each title occurs in an index and how often each query was searched in it.
+     * @param index Name of the index
+     * @return Count of each original spelling per normalized suggestion
+     * @throws IOException
+     */
+    private Map<String, Map<String, Long>> collectSpellings(String index) throws IOException {
+
+        /************************************************************
+         * MARKER-SUGGESTIONS                                       *
+         * Here the suggestions of an index and their weights are   *
+         * collected. Currently, these are the document titles and  *
+         * the frequent queries of the query log.                   *
+         ************************************************************/
+
+        Map<String, Map<String, Long>> spellings = new HashMap<>();
+        ApiResourceManager apiResourceManager = ApiResourceManager.getInstance();
+
+        List<SimpleGroup> simpleGroups = apiResourceManager.getMetadataGroups().get(index);
+        if (simpleGroups != null) {
+            for (SimpleGroup simpleGroup : simpleGroups) {
+                addSpelling(spellings, simpleGroup.getString("title", 0));
+            }
+        } else {
+            IndexSearcher searcher = apiResourceManager.acquireSearcher(index);
+            try {
+                IndexReader reader = searcher.getIndexReader();
+                if (apiResourceManager.isDenormalized(reader)) {
+                    Bits liveDocs = MultiBits.getLiveDocs(reader);
+                    StoredFields storedFields = reader.storedFields();
+                    for (int docId = 0; docId < reader.maxDoc(); docId++) {
+                        if (liveDocs == null || liveDocs.get(docId)) {
+                            addSpelling(spellings, storedFields.document(docId, Collections.singleton(ApiUtils.FIELD_TITLE)).get(ApiUtils.FIELD_TITLE));
+                        }
+                    }
+                }
+            } finally {
+                apiResourceManager.releaseSearcher(index, searcher);
+            }
+        }
+
+        if (queryLog != null) {
+            Map<String, Map<String, Long>> loggedSpellings = new HashMap<>();
+            for (String[] indexAndQuery : queryLog.readRecent(NUM_LOGGED_QUERIES)) {
+                if (indexAndQuery[0].equals(index)) {
+                    addSpelling(loggedSpellings, indexAndQuery[1]);
+                }
+            }
+
+            // Only frequent queries are suggested, so that a query of a single user is not shown to others
+            loggedSpellings.forEach((key, counts) -> {
+                if (counts.values().stream().mapToLong(Long::longValue).sum() >= MIN_LOGGED_QUERY_COUNT) {
+                    counts.forEach((spelling, count) -> {
+                        if (isParseable(spelling)) {
+                            spellings.computeIfAbsent(key, k -> new HashMap<>()).merge(spelling, count, Long::sum);
+                        }
+                    });
+                }
+            });
+        }
+
+        return spellings;
+    }
+
+    /**
+     * Checks if a logged query can be parsed like the query of a search request.
+     * @param queryString Query as string
+     * @return True if the query can be parsed, else false
+     */
+    private static boolean isParseable(String queryString) {
+        try {
+            new QueryParser("contents", new StandardAnalyzer()).parse(queryString);
+            return true;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static void addSpelling(Map<String, Map<String, Long>> spellings, String suggestion) {
+        if (suggestion == null) {
+            return;
+        }
+
+        String spelling = suggestion.trim().replaceAll("\\s+", " ");
+        String normalized = normalize(spelling);
+        if (!normalized.isEmpty() && normalized.length() <= MAX_SUGGESTION_LENGTH) {
+            spellings.computeIfAbsent(normalized, key -> new HashMap<>()).merge(spelling, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Normalizes suggestions and prefixes in the same way, so that lookups are case-insensitive.
+     * @param text Suggestion or prefix
+     * @return Lower cased text with single spaces
+     */
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * Stores the suggester of an index together with the spelling returned for each of its keys,
+     * as the FST suggester does not support payloads.
+     */
+    private static class Suggester {
+        final Lookup lookup;
+        final Map<String, String> displayTexts;
+
+        Suggester(Lookup lookup, Map<String, String> displayTexts) {
+            this.lookup = lookup;
+            this.displayTexts = displayTexts;
+        }
+    }
+
+    /**
+     * Passes suggestions and their weights to the suggester build.
+     */
+    private static class WeightsInputIterator implements InputIterator {
+        private final Iterator<Map.Entry<String, Long>> iterator;
+        private long weight;
+
+        WeightsInputIterator(Map<String, Long> weights) {
+            this.iterator = weights.entrySet().iterator();
+        }
+
+        @Override
+        public BytesRef next() {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, Long> entry = iterator.next();
+            weight = entry.getValue();
+            return new BytesRef(entry.getKey());
+        }
+
+        @Override
+        public long weight() {
+            return weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return false;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return null;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+    }
+}
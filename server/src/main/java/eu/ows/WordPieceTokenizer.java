@@ -0,0 +1,160 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Splits texts into the token IDs expected by uncased BERT-style sentence embedding models.
+ * The vocabulary is read from the vocab.txt file that is shipped with such models.
+ */
+public class WordPieceTokenizer {
+
+    private static final String CLS_TOKEN = "[CLS]";
+    private static final String SEP_TOKEN = "[SEP]";
+    private static final String UNK_TOKEN = "[UNK]";
+    private static final int MAX_WORD_LENGTH = 100;
+    private static final Pattern NON_SPACING_MARKS = Pattern.compile("\\p{Mn}");
+
+    private final Map<String, Integer> vocabulary = new HashMap<>();
+    private final int maxSequenceLength;
+
+    /**
+     * Creates a tokenizer from a vocabulary file with one token per line.
+     * @param vocabularyPath Path of the vocab.txt file
+     * @param maxSequenceLength Maximum number of tokens per text including [CLS] and [SEP]
+     * @throws IOException If the file can not be read or lacks one of the special tokens
+     */
+    public WordPieceTokenizer(Path vocabularyPath, int maxSequenceLength) throws IOException {
+        List<String> tokens = Files.readAllLines(vocabularyPath, StandardCharsets.UTF_8);
+        for (int i = 0; i < tokens.size(); i++) {
+            vocabulary.put(tokens.get(i).trim(), i);
+        }
+
+        // Fail on start instead of on every request if the vocabulary is not a BERT vocabulary
+        for (String specialToken : Arrays.asList(CLS_TOKEN, SEP_TOKEN, UNK_TOKEN)) {
+            if (!vocabulary.containsKey(specialToken)) {
+                throw new IOException("Vocabulary " + vocabularyPath + " does not contain " + specialToken);
+            }
+        }
+        this.maxSequenceLength = maxSequenceLength;
+    }
+
+    /**
+     * Converts a text to token IDs, starting with [CLS] and ending with [SEP].
+     * The text is split and normalized word by word, so that tokenizing stops as soon as the
+     * maximum sequence length is reached instead of processing the rest of a long text.
+     * @param text Text to be tokenized
+     * @return Token IDs of the text, truncated to the maximum sequence length
+     */
+    public long[] tokenize(String text) {
+        List<Long> ids = new ArrayList<>();
+        ids.add((long) vocabulary.get(CLS_TOKEN));
+
+        // Leave room for [SEP]
+        int maxNumIds = maxSequenceLength - 1;
+
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length() && ids.size() < maxNumIds; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                addWord(ids, word, maxNumIds);
+            } else if (isPunctuation(c)) {
+                addWord(ids, word, maxNumIds);
+                word.append(c);
+                addWord(ids, word, maxNumIds);
+            } else if (word.length() <= MAX_WORD_LENGTH) {
+                // Longer words become [UNK], so the rest of them is not kept
+                word.append(c);
+            }
+        }
+        addWord(ids, word, maxNumIds);
+
+        ids.add((long) vocabulary.get(SEP_TOKEN));
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Normalizes a word, splits it into word pieces and adds their IDs until the limit is reached.
+     * @param ids Token IDs of the text so far
+     * @param word Word to be added, which is cleared afterwards
+     * @param maxNumIds Maximum number of token IDs
+     */
+    private void addWord(List<Long> ids, StringBuilder word, int maxNumIds) {
+        if (word.length() == 0) {
+            return;
+        }
+
+        String normalized = normalize(word.toString());
+        word.setLength(0);
+        for (long id : splitWordPieces(normalized)) {
+            if (ids.size() >= maxNumIds) {
+                return;
+            }
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Lower cases a word and removes its accents.
+     * @param word Word to be normalized
+     * @return Normalized word
+     */
+    private static String normalize(String word) {
+        return NON_SPACING_MARKS.matcher(Normalizer.normalize(word.toLowerCase(), Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    private static boolean isPunctuation(char c) {
+        int type = Character.getType(c);
+        return (c >= 33 && c <= 47) || (c >= 58 && c <= 64) || (c >= 91 && c <= 96) || (c >= 123 && c <= 126)
+            || type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION
+            || type == Character.START_PUNCTUATION || type == Character.END_PUNCTUATION
+            || type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+            || type == Character.OTHER_PUNCTUATION;
+    }
+
+    /**
+     * Splits a word into the longest pieces found in the vocabulary, greedily from the start.
+     * @param word Word to be split
+     * @return Token IDs of the pieces or the ID of [UNK] if the word can not be split
+     */
+    private List<Long> splitWordPieces(String word) {
+        List<Long> ids = new ArrayList<>();
+        if (word.length() > MAX_WORD_LENGTH) {
+            ids.add((long) vocabulary.get(UNK_TOKEN));
+            return ids;
+        }
+
+        int start = 0;
+        while (start < word.length()) {
+            int end = word.length();
+            Integer id = null;
+            while (start < end) {
+                String piece = (start > 0 ? "##" : "") + word.substring(start, end);
+                id = vocabulary.get(piece);
+                if (id != null) {
+                    break;
+                }
+                end--;
+            }
+
+            if (id == null) {
+                ids.clear();
+                ids.add((long) vocabulary.get(UNK_TOKEN));
+                return ids;
+            }
+            ids.add((long) id);
+            start = end;
+        }
+
+        return ids;
+    }
+}
@@ -0,0 +1,103 @@
+package eu.ows;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the state transitions of CircuitBreaker.
+ */
+public class CircuitBreakerTest 
+    extends TestCase
+{
+    public CircuitBreakerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CircuitBreakerTest.class );
+    }
+
+    public void testStaysClosedBelowThreshold()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 3, 60000 );
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertTrue( circuitBreaker.allowRequest() );
+        assertTrue( circuitBreaker.allowRequest() );
+    }
+
+    public void testSuccessResetsFailures()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 3, 60000 );
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertTrue( circuitBreaker.allowRequest() );
+    }
+
+    public void testOpensAtThreshold()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 3, 60000 );
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertFalse( circuitBreaker.allowRequest() );
+    }
+
+    public void testHalfOpenAllowsSingleTrial()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 1, 0 );
+        circuitBreaker.recordFailure();
+        assertTrue( circuitBreaker.allowRequest() );
+        assertFalse( circuitBreaker.allowRequest() );
+    }
+
+    public void testSuccessfulTrialCloses()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 1, 0 );
+        circuitBreaker.recordFailure();
+        assertTrue( circuitBreaker.allowRequest() );
+        circuitBreaker.recordSuccess();
+        assertTrue( circuitBreaker.allowRequest() );
+        assertTrue( circuitBreaker.allowRequest() );
+    }
+
+    public void testFailedTrialReopens() throws InterruptedException
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 1, 100 );
+        circuitBreaker.recordFailure();
+        assertFalse( circuitBreaker.allowRequest() );
+
+        Thread.sleep( 150 );
+        assertTrue( circuitBreaker.allowRequest() );
+        circuitBreaker.recordFailure();
+        assertFalse( circuitBreaker.allowRequest() );
+
+        Thread.sleep( 150 );
+        assertTrue( circuitBreaker.allowRequest() );
+    }
+
+    public void testIgnoredCallsDoNotOpen()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 2, 60000 );
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordIgnored();
+        circuitBreaker.recordIgnored();
+        assertTrue( circuitBreaker.allowRequest() );
+    }
+
+    public void testIgnoredTrialAllowsNextTrial()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( 1, 0 );
+        circuitBreaker.recordFailure();
+        assertTrue( circuitBreaker.allowRequest() );
+        circuitBreaker.recordIgnored();
+        assertTrue( circuitBreaker.allowRequest() );
+        assertFalse( circuitBreaker.allowRequest() );
+    }
+}
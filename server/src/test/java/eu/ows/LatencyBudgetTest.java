@@ -0,0 +1,54 @@
+package eu.ows;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LatencyBudget.
+ */
+public class LatencyBudgetTest 
+    extends TestCase
+{
+    public LatencyBudgetTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LatencyBudgetTest.class );
+    }
+
+    public void testNewBudgetIsAvailable()
+    {
+        LatencyBudget budget = new LatencyBudget( 60000 );
+        assertTrue( budget.remainingMillis() > 0 );
+        assertFalse( budget.isExhausted() );
+        assertFalse( budget.isDegraded() );
+    }
+
+    public void testEmptyBudgetIsExhausted()
+    {
+        LatencyBudget budget = new LatencyBudget( 0 );
+        assertEquals( 0, budget.remainingMillis() );
+        assertTrue( budget.isExhausted() );
+        assertFalse( budget.isDegraded() );
+    }
+
+    public void testDegradedBudgetIsExhausted()
+    {
+        LatencyBudget budget = new LatencyBudget( 60000 );
+        budget.degrade();
+        assertTrue( budget.remainingMillis() > 0 );
+        assertTrue( budget.isExhausted() );
+        assertTrue( budget.isDegraded() );
+    }
+
+    public void testBudgetStartsWithArrival()
+    {
+        long arrivalNanos = System.nanoTime() - 2_000_000_000L;
+        assertTrue( new LatencyBudget( 1000, arrivalNanos ).isExhausted() );
+        assertTrue( new LatencyBudget( 60000, arrivalNanos ).remainingMillis() <= 58000 );
+    }
+}
@@ -0,0 +1,65 @@
+package eu.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the formats written by ResultWriter.
+ */
+public class ResultWriterTest
+    extends TestCase
+{
+    private static final String RESULT = "{\"results\":[{\"url\":\"https://example.org\",\"wordCount\":12,\"sortValues\":[1,null]}],\"totalHits\":3,\"degraded\":false}";
+
+    public ResultWriterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ResultWriterTest.class );
+    }
+
+    private static JsonObject createResult()
+    {
+        JsonObject resultObject = new Gson().fromJson( RESULT, JsonObject.class );
+        resultObject.getAsJsonArray( "results" ).get( 0 ).getAsJsonObject().addProperty( "score", 1.25f );
+        return resultObject;
+    }
+
+    private static byte[] write( JsonObject resultObject, String format ) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ResultWriter( format ).write( resultObject, outputStream );
+        return outputStream.toByteArray();
+    }
+
+    public void testJsonEqualsGson() throws IOException
+    {
+        JsonObject resultObject = createResult();
+        assertEquals( resultObject.toString(), new String( write( resultObject, ApiUtils.FORMAT_JSON ), StandardCharsets.UTF_8 ) );
+    }
+
+    public void testCborKeepsNumberTypes() throws IOException
+    {
+        JsonNode resultNode = new ObjectMapper( new CBORFactory() ).readTree( write( createResult(), ApiUtils.FORMAT_CBOR ) );
+        JsonNode hitNode = resultNode.get( "results" ).get( 0 );
+        assertTrue( hitNode.get( "wordCount" ).isIntegralNumber() );
+        assertTrue( hitNode.get( "score" ).isFloatingPointNumber() );
+        assertEquals( 1.25, hitNode.get( "score" ).doubleValue(), 0.0 );
+        assertTrue( hitNode.get( "sortValues" ).get( 1 ).isNull() );
+        assertEquals( 3, resultNode.get( "totalHits" ).intValue() );
+    }
+}
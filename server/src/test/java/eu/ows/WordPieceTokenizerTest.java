@@ -0,0 +1,117 @@
+package eu.ows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for WordPieceTokenizer with a small vocabulary.
+ */
+public class WordPieceTokenizerTest 
+    extends TestCase
+{
+    private static final List<String> VOCABULARY = Arrays.asList(
+        "[PAD]", "[UNK]", "[CLS]", "[SEP]", "hello", "world", "##s", "un", "##want", "##ed", ",", "!", "cafe" );
+
+    private Path vocabularyPath;
+
+    public WordPieceTokenizerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WordPieceTokenizerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        vocabularyPath = Files.createTempFile( "vocab", ".txt" );
+        Files.write( vocabularyPath, VOCABULARY, StandardCharsets.UTF_8 );
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        Files.deleteIfExists( vocabularyPath );
+    }
+
+    private long[] tokenize( String text, int maxSequenceLength ) throws IOException
+    {
+        return new WordPieceTokenizer( vocabularyPath, maxSequenceLength ).tokenize( text );
+    }
+
+    private static long[] ids( String... tokens )
+    {
+        return Arrays.stream( tokens ).mapToLong( VOCABULARY::indexOf ).toArray();
+    }
+
+    public void testSplitsWordsAndPunctuation() throws IOException
+    {
+        assertTrue( Arrays.equals( ids( "[CLS]", "hello", ",", "world", "!", "[SEP]" ), tokenize( "Hello,  world!", 16 ) ) );
+    }
+
+    public void testSplitsWordPieces() throws IOException
+    {
+        assertTrue( Arrays.equals( ids( "[CLS]", "un", "##want", "##ed", "world", "##s", "[SEP]" ), tokenize( "unwanted worlds", 16 ) ) );
+    }
+
+    public void testRemovesAccents() throws IOException
+    {
+        assertTrue( Arrays.equals( ids( "[CLS]", "cafe", "[SEP]" ), tokenize( "Caf\u00e9", 16 ) ) );
+    }
+
+    public void testUnknownWords() throws IOException
+    {
+        StringBuilder longWord = new StringBuilder();
+        for ( int i = 0; i < 200; i++ )
+        {
+            longWord.append( "hello" );
+        }
+        assertTrue( Arrays.equals( ids( "[CLS]", "[UNK]", "[UNK]", "[SEP]" ), tokenize( "xyz " + longWord, 16 ) ) );
+    }
+
+    public void testTruncatesToMaxSequenceLength() throws IOException
+    {
+        assertTrue( Arrays.equals( ids( "[CLS]", "un", "##want", "[SEP]" ), tokenize( "unwanted hello world", 4 ) ) );
+    }
+
+    public void testStopsAtMaxSequenceLength() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 1000000; i++ )
+        {
+            text.append( "hello world " );
+        }
+        String longText = text.toString();
+        WordPieceTokenizer tokenizer = new WordPieceTokenizer( vocabularyPath, 8 );
+
+        // Tokenizing the whole text a thousand times would take far longer than a second
+        long startNanos = System.nanoTime();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( 8, tokenizer.tokenize( longText ).length );
+        }
+        assertTrue( System.nanoTime() - startNanos < 1_000_000_000L );
+    }
+
+    public void testRejectsVocabularyWithoutSpecialTokens() throws IOException
+    {
+        Files.write( vocabularyPath, Arrays.asList( "[PAD]", "[CLS]", "[SEP]", "hello" ), StandardCharsets.UTF_8 );
+        try {
+            new WordPieceTokenizer( vocabularyPath, 16 );
+            fail( "Expected an IOException for a vocabulary without [UNK]" );
+        } catch ( IOException e ) {
+            assertTrue( e.getMessage().contains( "[UNK]" ) );
+        }
+    }
+}